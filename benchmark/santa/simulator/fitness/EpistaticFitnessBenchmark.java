@@ -0,0 +1,159 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.Feature;
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.Mutation;
+import santa.simulator.genomes.Sequence;
+import santa.simulator.genomes.SimpleGenePool;
+import santa.simulator.genomes.SimpleSequence;
+import santa.simulator.genomes.StateChange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Times the incremental update of the epistatic factor's fitness (from the neighbours of
+ * the mutated sites) against computing it from scratch, for a nucleotide and an amino
+ * acid feature. Each measurement is repeated after a warm up, and the median and the
+ * fastest time per genome are reported.
+ *
+ * Run with "ant benchmark", or:
+ *
+ *     java -cp ... santa.simulator.fitness.EpistaticFitnessBenchmark [interactionCount]
+ */
+public class EpistaticFitnessBenchmark {
+
+	private static final int GENOME_LENGTH = 3000;
+	private static final int DEFAULT_INTERACTION_COUNT = 10000;
+	private static final int GENOME_COUNT = 200;
+
+	// the calls to the factor for each genome in a round, and the rounds that are timed.
+	private static final int REPEATS = 50;
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 30;
+
+	// the results of the calls, so that they cannot be optimized away.
+	private static double sink = 0;
+
+	public static void main(String[] args) {
+		int interactionCount = (args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_INTERACTION_COUNT);
+
+		Random random = new Random(1);
+		SimpleSequence master = new SimpleSequence(GENOME_LENGTH);
+		for (int i = 0; i < GENOME_LENGTH; i++) {
+			master.setNucleotide(i, (byte) random.nextInt(4));
+		}
+
+		Feature nucleotides = new Feature("NT", Feature.Type.NUCLEOTIDE);
+		nucleotides.addFragment(0, GENOME_LENGTH);
+		Feature aminoAcids = new Feature("AA", Feature.Type.AMINO_ACID);
+		aminoAcids.addFragment(0, GENOME_LENGTH);
+
+		List<Feature> features = new ArrayList<Feature>();
+		features.add(nucleotides);
+		features.add(aminoAcids);
+		GenomeDescription.setDescription(GENOME_LENGTH, features, Collections.<Sequence>singletonList(master));
+
+		run(nucleotides, 4, GENOME_LENGTH, 1, master, interactionCount);
+		run(aminoAcids, 21, GENOME_LENGTH / 3, 3, master, interactionCount);
+
+		if (Double.isNaN(sink)) {
+			System.out.println();
+		}
+	}
+
+	private static void run(Feature feature, int stateCount, int siteCount, int tokenSize, Sequence master, int interactionCount) {
+		Random random = new Random(2);
+		List<EpistaticFitnessFactor.Interaction> interactions = new ArrayList<EpistaticFitnessFactor.Interaction>();
+		while (interactions.size() < interactionCount) {
+			int first = random.nextInt(siteCount);
+			int second = random.nextInt(siteCount);
+			if (first == second) {
+				continue;
+			}
+			double[][] logFitness = new double[stateCount][stateCount];
+			for (int i = 0; i < stateCount; i++) {
+				for (int j = 0; j < stateCount; j++) {
+					logFitness[i][j] = (random.nextDouble() < 0.2 ? -random.nextDouble() : 0);
+				}
+			}
+			interactions.add(new EpistaticFitnessFactor.Interaction(first, second, logFitness));
+		}
+		EpistaticFitnessFactor factor = new EpistaticFitnessFactor(feature, interactions);
+
+		List<FitnessFactor> factors = new ArrayList<FitnessFactor>();
+		factors.add(factor);
+		FitnessFunction fitnessFunction = new FitnessFunction(factors);
+		GenePool genePool = new SimpleGenePool();
+
+		// genomes that differ a little from the master, and the changes of five substitutions
+		// to each, two of them at the ends of an interaction.
+		List<Genome> genomes = new ArrayList<Genome>();
+		List<List<StateChange>> changes = new ArrayList<List<StateChange>>();
+		for (int i = 0; i < GENOME_COUNT; i++) {
+			SimpleSequence sequence = new SimpleSequence(master);
+			for (int j = 0; j < 20; j++) {
+				sequence.setNucleotide(random.nextInt(GENOME_LENGTH), (byte) random.nextInt(4));
+			}
+			Genome genome = genePool.createGenome(sequence);
+			fitnessFunction.computeLogFitness(genome);
+			genomes.add(genome);
+
+			EpistaticFitnessFactor.Interaction interaction = interactions.get(random.nextInt(interactionCount));
+			int[] positions = new int[] {
+					random.nextInt(GENOME_LENGTH), random.nextInt(GENOME_LENGTH), random.nextInt(GENOME_LENGTH),
+					interaction.getFirstSite() * tokenSize + random.nextInt(tokenSize),
+					interaction.getSecondSite() * tokenSize + random.nextInt(tokenSize)
+			};
+			SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+			for (int position : positions) {
+				byte state = (byte) ((sequence.getNucleotide(position) + 1 + random.nextInt(3)) % 4);
+				mutations.add(Mutation.getMutation(position, state));
+			}
+			changes.add(genome.getChanges(feature, mutations));
+		}
+
+		long[] incrementalTimes = new long[ROUNDS];
+		long[] computeTimes = new long[ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int r = 0; r < REPEATS; r++) {
+				for (int i = 0; i < GENOME_COUNT; i++) {
+					sink += factor.getLogFitnessChange(genomes.get(i), changes.get(i));
+				}
+			}
+			long incrementalTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int r = 0; r < REPEATS; r++) {
+				for (int i = 0; i < GENOME_COUNT; i++) {
+					sink += factor.computeLogFitness(genomes.get(i).getStates(feature));
+				}
+			}
+			long computeTime = System.nanoTime() - start;
+
+			if (round >= 0) {
+				incrementalTimes[round] = incrementalTime;
+				computeTimes[round] = computeTime;
+			}
+		}
+
+		System.out.println(feature.getName() + ", " + interactionCount + " interactions (ns/genome, median / fastest):");
+		System.out.println("  incremental   " + report(incrementalTimes));
+		System.out.println("  from scratch  " + report(computeTimes));
+	}
+
+	private static String report(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		long calls = (long) REPEATS * GENOME_COUNT;
+		return (sorted[sorted.length / 2] / calls) + " / " + (sorted[0] / calls);
+	}
+}
@@ -49,5 +49,10 @@ public class EventLogger {
     public static void setEpoch(int epoch) { INSTANCE._setEpoch(epoch); }
     public static void setGeneration(int generation) { INSTANCE._setGeneration(generation); }
     public static void log(String event) { INSTANCE._log(event); }
+
+    /**
+     * @return true if events are being written, so that callers can avoid building them otherwise.
+     */
+    public static boolean isEnabled() { return INSTANCE.writer != null; }
 }
 
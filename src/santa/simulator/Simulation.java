@@ -7,6 +7,7 @@ import java.util.logging.Logger;
 import santa.simulator.genomes.GenePool;
 import santa.simulator.genomes.GenomeDescription;
 import santa.simulator.genomes.Sequence;
+import santa.simulator.phylogeny.AncestralRecombinationGraph;
 import santa.simulator.phylogeny.Phylogeny;
 import santa.simulator.population.PopulationGrowth;
 import santa.simulator.population.Population;
@@ -54,6 +55,11 @@ public class Simulation {
         this.selector = selector;
 
         population = new Population(genePool, selector, growth, samplingSchedule.isSamplingTrees() ? new Phylogeny(populationSize) : null);
+        if (samplingSchedule.isSamplingRecombinationGraph()) {
+            population.setRecombinationGraph(new AncestralRecombinationGraph(GenomeDescription.root.getGenomeLength(),
+                    samplingSchedule.getRecombinationGraphSimplifyInterval()));
+        }
+        population.setGenealogyLog(samplingSchedule.getGenealogyLog());
     }
     
     public void run(int replicate, Logger logger) {
@@ -8,6 +8,7 @@ package santa.simulator;
 
 import santa.simulator.fitness.FitnessFunction;
 import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.GenomeDescription;
 import santa.simulator.mutators.Mutator;
 import santa.simulator.population.Population;
 import santa.simulator.replicators.Replicator;
@@ -45,6 +46,9 @@ public class SimulationEpoch {
 
         final int endGeneration = startGeneration + generationCount;
 
+        // combine the fitness factors for this epoch; all fitnesses are recomputed below.
+        fitnessFunction.compile();
+
 		memlogger.fine("@start of Epoch Memory used = " + readableByteCount(usedMemory()));
 
         for (int generation = startGeneration; generation < endGeneration; ++generation) {
@@ -69,11 +73,11 @@ public class SimulationEpoch {
             }
             
             if (generation % 100 == 0) {
-                if (population.getPhylogeny() != null)
-                    population.getPhylogeny().pruneDeadLineages();
-
 				memlogger.finest("Generation "+ generation +
-							   " used memory: " + readableByteCount(usedMemory()));
+							   " used memory: " + readableByteCount(usedMemory()) +
+							   ", genome descriptions cached: " + GenomeDescription.getCacheSize() +
+							   " (" + GenomeDescription.getCacheHits() + " hits, " +
+							   GenomeDescription.getCacheMisses() + " misses)");
 
                 System.err.print("Generation " + generation + ":  fitness = " + population.getMeanFitness() +
                         ", distance = " + population.getMeanDistance() +
@@ -81,10 +85,9 @@ public class SimulationEpoch {
                         ", genepool size = " + genePool.getUniqueGenomeCount() +
                         " (" + genePool.getUnusedGenomeCount() + " available)");
                 if (population.getPhylogeny() != null) {
-                    population.getPhylogeny().pruneDeadLineages();
                     System.err.println(", phylogeny size = " + population.getPhylogeny().getSize() +
                         " (used = " + population.getPhylogeny().getLineageCount()+ ")" +
-                        ", tmrca = " + population.getPhylogeny().getMRCA().getGeneration() );
+                        ", tmrca = " + population.getPhylogeny().getMRCAGeneration() );
                 } else
                     System.err.println();
             } else {
@@ -92,7 +95,8 @@ public class SimulationEpoch {
             			", distance = " + population.getMeanDistance() +
             			", max freq = " + population.getMaxFrequency() +
             			", genepool size= " + genePool.getUniqueGenomeCount() +
-            			"(" + genePool.getUnusedGenomeCount() + " available)");                
+            			"(" + genePool.getUnusedGenomeCount() + " available)" +
+            			(population.getPhylogeny() != null ? ", tmrca = " + population.getPhylogeny().getMRCAGeneration() : ""));
             }
 
             samplingSchedule.doSampling(generation, population);
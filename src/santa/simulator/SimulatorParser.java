@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Arrays;
@@ -20,6 +21,7 @@ import org.jdom2.Element;
 
 import santa.simulator.fitness.AgeDependentFitnessFactor;
 import santa.simulator.fitness.BetaDistributedPurifyingFitnessModel;
+import santa.simulator.fitness.EpistaticFitnessFactor;
 import santa.simulator.fitness.ExposureDependentFitnessFactor;
 import santa.simulator.fitness.FitnessFactor;
 import santa.simulator.fitness.FitnessFunction;
@@ -40,6 +42,7 @@ import santa.simulator.genomes.SequenceAlphabet;
 import santa.simulator.genomes.SimpleGenePool;
 import santa.simulator.genomes.SimpleSequence;
 import santa.simulator.genomes.RecombinationHotSpot;
+import santa.simulator.phylogeny.GenealogyLog;
 import santa.simulator.mutators.Mutator;
 import santa.simulator.mutators.NucleotideMutator;
 import santa.simulator.population.DynamicPopulationGrowth;
@@ -51,6 +54,8 @@ import santa.simulator.replicators.RecombinantReplicator;
 import santa.simulator.replicators.Replicator;
 import santa.simulator.samplers.AlignmentSampler;
 import santa.simulator.samplers.AlleleFrequencySampler;
+import santa.simulator.samplers.GenealogySampler;
+import santa.simulator.samplers.RecombinationGraphSampler;
 import santa.simulator.samplers.Sampler;
 import santa.simulator.samplers.SamplingSchedule;
 import santa.simulator.samplers.StatisticsSampler;
@@ -148,6 +153,8 @@ public class SimulatorParser {
 	private final static String EMPIRICAL_FITNESS_FUNCTION = "empiricalFitness";
 	private final static String POPULATION_SIZE_DEPENDENT_FITNESS_FUNCTION = "populationSizeDependentFitness";
 	private final static String MAX_POP_SIZE = "maxPopulationSize";
+	private final static String EPISTATIC_FITNESS_FUNCTION = "epistaticFitness";
+	private final static String INTERACTIONS = "interactions";
 
 	private final static String MUTATOR = "mutator";
 	private final static String REPLICATOR = "replicator";
@@ -160,6 +167,10 @@ public class SimulatorParser {
 
 	private final static String ALIGNMENT = "alignment";
 	private final static String TREE = "tree";
+	private final static String RECOMBINATION_GRAPH = "recombinationGraph";
+	private final static String SIMPLIFY_INTERVAL = "simplifyInterval";
+	private final static String GENEALOGY = "genealogy";
+	private final static String SEGMENT_SIZE = "segmentSize";
 	private final static String GENOMEDESCRIPTION = "genomedescription";
 	private final static String SAMPLE_SIZE = "sampleSize";
 	private final static String SCHEDULE = "schedule";
@@ -539,7 +550,8 @@ public class SimulatorParser {
 					throw new ParseException("Error parsing <" + GENOME_DESCRIPTION + "> element: " + pe.getMessage());
 				}
 			} else if (e.getName().equals(FEATURE)) {
-                features.add(parseFeature(e));
+                // features are numbered in the order they are given, after the genome feature.
+                features.add(parseFeature(e, Feature.GENOME_ID + 1 + features.size()));
 			} else if (e.getName().equals(SEQUENCES)) {
 				if (e.getAttributeValue(FILENAME) != null) {
 					try {
@@ -565,7 +577,7 @@ public class SimulatorParser {
 		GenomeDescription.setDescription(genomeLength, features, sequences);
 	}
 
-	private Feature parseFeature(Element element) throws ParseException {
+	private Feature parseFeature(Element element, int id) throws ParseException {
 
 		String name = null;
 		Feature.Type type = Feature.Type.NUCLEOTIDE;
@@ -596,7 +608,7 @@ public class SimulatorParser {
 			}
 		}
 
-		Feature feature = new Feature(name, type);
+		Feature feature = new Feature(name, type, id);
 
 		try {
 			for (String part: parts) {
@@ -679,6 +691,8 @@ public class SimulatorParser {
 				factor = parseExposureDependentFitnessFunction(e);
 			} else if (e.getName().equals(POPULATION_SIZE_DEPENDENT_FITNESS_FUNCTION)) {
 				factor = parsePopulationSizeDependentFitnessFunction(e);
+			} else if (e.getName().equals(EPISTATIC_FITNESS_FUNCTION)) {
+				factor = parseEpistaticFitnessFunction(e);
 			} else {
 				throw new ParseException("Error parsing <" + element.getName()
 						+ "> element: <" + e.getName() + "> is unrecognized");
@@ -844,6 +858,125 @@ public class SimulatorParser {
 		return new FrequencyDependentFitnessFactor(shape, factor.feature, factor.sites);
 	}
 
+	/**
+	 * Parse the pairwise interactions of an epistatic fitness factor. Each <interactions>
+	 * element (or the file named by its file attribute) has one line per pair of states:
+	 *
+	 *   site1 site2 state1 state2 fitness
+	 *
+	 * with sites numbered from 1 within the feature. Lines starting with '#' are ignored,
+	 * as are pairs of states that are not given (fitness 1).
+	 */
+	private FitnessFactor parseEpistaticFitnessFunction(Element element) throws ParseException {
+		FitnessFactor result = getFitnessFactor(element, EpistaticFitnessFactor.class.getName());
+
+		if (result != null)
+			return result;
+
+		FeatureAndSites factor = parseFeatureAndSites(element);
+
+		SequenceAlphabet alphabet = SequenceAlphabet.NUCLEOTIDES;
+		if (factor.feature.getFeatureType() == Feature.Type.AMINO_ACID) {
+			alphabet = SequenceAlphabet.AMINO_ACIDS;
+		}
+
+		// the log fitness tables of each pair of sites, in the order they first appear.
+		Map<List<Integer>, double[][]> tables = new LinkedHashMap<List<Integer>, double[][]>();
+
+		for (Object o : element.getChildren()) {
+			Element e = (Element)o;
+			if (e.getName().equals(INTERACTIONS)) {
+				String text;
+				if (e.getAttributeValue(FILENAME) != null) {
+					try {
+						text = new String(readAllBytes(get(e.getAttributeValue(FILENAME))));
+					} catch (IOException eio) {
+						throw new ParseException("Error parsing <" + INTERACTIONS + "> file attribute: Cannot open file " + eio.getMessage());
+					}
+				} else {
+					text = e.getText();
+				}
+				parseInteractions(text, factor.feature, alphabet, tables);
+			} else if (!e.getName().equals(FEATURE)) {
+				throw new ParseException("Error parsing <" + element.getName() + "> element: <" + e.getName() + "> is unrecognized");
+			}
+		}
+
+		if (tables.isEmpty()) {
+			throw new ParseException("Error parsing <" + element.getName() + "> element: expecting <" + INTERACTIONS + ">");
+		}
+
+		List<EpistaticFitnessFactor.Interaction> interactions = new ArrayList<EpistaticFitnessFactor.Interaction>();
+		for (Map.Entry<List<Integer>, double[][]> entry : tables.entrySet()) {
+			interactions.add(new EpistaticFitnessFactor.Interaction(entry.getKey().get(0), entry.getKey().get(1), entry.getValue()));
+		}
+
+		return new EpistaticFitnessFactor(factor.feature, interactions);
+	}
+
+	private void parseInteractions(String text, Feature feature, SequenceAlphabet alphabet,
+	                               Map<List<Integer>, double[][]> tables) throws ParseException {
+		int stateCount = alphabet.getStateCount();
+
+		for (String line : text.split("\\r?\\n")) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] parts = line.split("\\s+");
+			if (parts.length != 5) {
+				throw new ParseException("Error parsing <" + INTERACTIONS + ">: expecting 'site1 site2 state1 state2 fitness', got '" + line + "'");
+			}
+
+			try {
+				int site1 = Integer.parseInt(parts[0]);
+				int site2 = Integer.parseInt(parts[1]);
+				for (int site : new int[] { site1, site2 }) {
+					if (site <= 0 || site > feature.getLength()) {
+						throw new ParseException("Error parsing <" + INTERACTIONS + ">: "
+								+ site + " is out the valid range (1 - " + feature.getLength() + ") for feature '"
+								+ feature.getName() + "'");
+					}
+				}
+				if (site1 == site2) {
+					throw new ParseException("Error parsing <" + INTERACTIONS + ">: a site cannot interact with itself (" + site1 + ")");
+				}
+				if (parts[2].length() != 1 || parts[3].length() != 1) {
+					throw new ParseException("Error parsing <" + INTERACTIONS + ">: expecting single character states, got '" + line + "'");
+				}
+				byte state1 = alphabet.parse(parts[2].charAt(0));
+				byte state2 = alphabet.parse(parts[3].charAt(0));
+				double fitness = Double.parseDouble(parts[4]);
+				if (fitness < 0) {
+					throw new ParseException("Error parsing <" + INTERACTIONS + ">: fitness cannot be negative, got " + fitness);
+				}
+
+				// keep each pair of sites in one order
+				if (site1 > site2) {
+					int tmpSite = site1;
+					site1 = site2;
+					site2 = tmpSite;
+					byte tmpState = state1;
+					state1 = state2;
+					state2 = tmpState;
+				}
+
+				List<Integer> key = Arrays.asList(site1 - 1, site2 - 1);
+				double[][] table = tables.get(key);
+				if (table == null) {
+					table = new double[stateCount][stateCount];
+					tables.put(key, table);
+				}
+				table[state1][state2] = Math.log(fitness);
+			} catch (NumberFormatException nfe) {
+				throw new ParseException("Error parsing <" + INTERACTIONS + ">: " + nfe.getMessage());
+			} catch (RuntimeException re) {
+				throw new ParseException("Error parsing <" + INTERACTIONS + ">: " + re.getMessage());
+			}
+		}
+	}
+
 	private FitnessFactor parsePurifyingFitnessFunction(Element element) throws ParseException {
 		// parse <ref> element to reuse a purifying fitness factor that has already been specified.
 		FitnessFactor result = getFitnessFactor(element, PurifyingFitnessFactor.class.getName());
@@ -1630,6 +1763,10 @@ public class SimulatorParser {
 				sampler = parseGenomeDescriptionSampler(e1, samplingSchedule, fileName);
 			} else if (e1.getName().equals(TREE)) {
 				sampler = parseTreeSampler(e1, samplingSchedule, fileName);
+			} else if (e1.getName().equals(RECOMBINATION_GRAPH)) {
+				sampler = parseRecombinationGraphSampler(e1, samplingSchedule, fileName);
+			} else if (e1.getName().equals(GENEALOGY)) {
+				sampler = parseGenealogySampler(e1, samplingSchedule, fileName);
 			} else if (e1.getName().equals(ALLELE_FREQUENCY)) {
 				sampler = parseAlleleFrequencySampler(e1, samplingSchedule, fileName);
 			} else if (e1.getName().equals(STATISTICS)) {
@@ -1824,6 +1961,96 @@ public class SimulatorParser {
 		return new TreeSampler(sampleSize, schedule, format, label, fileName);
 	}
 
+	private Sampler parseRecombinationGraphSampler(Element element, SamplingSchedule samplingSchedule, String fileName) throws ParseException {
+
+		int sampleSize = -1;
+		Map<Integer,Integer> schedule = null;
+		String label = null;
+		int simplifyInterval = 100;
+
+		RecombinationGraphSampler.Format format = RecombinationGraphSampler.Format.TREES;
+
+		for (Object o : element.getChildren()) {
+			Element e1 = (Element)o;
+			if (e1.getName().equals(SAMPLE_SIZE)) {
+				try {
+					sampleSize = parseInteger(e1, 1, Integer.MAX_VALUE);
+				} catch (ParseException pe) {
+					throw new ParseException("Error parsing <" + element.getName() + "> element: " + pe.getMessage());
+				}
+			} else if (e1.getName().equals(SCHEDULE)) {
+				String[] values = e1.getTextTrim().split("\\s+");
+				schedule = new TreeMap<Integer,Integer>();
+				try {
+					for (int i = 0; i<values.length/2; ++i) {
+						int g = Integer.parseInt(values[i*2]);
+						int n = Integer.parseInt(values[i*2 + 1]);
+
+						schedule.put(g, n);
+					}
+				} catch (NumberFormatException e) {
+					throw new ParseException("Error parsing <" + element.getName() + "> element: "
+							+ e.getMessage());
+				}
+			} else if (e1.getName().equals(FORMAT)) {
+				String formatText = e1.getTextNormalize();
+				if (formatText.equalsIgnoreCase("TREES")) {
+					format = RecombinationGraphSampler.Format.TREES;
+				} else if (formatText.equalsIgnoreCase("TABLES")) {
+					format = RecombinationGraphSampler.Format.TABLES;
+				} else {
+					throw new ParseException("Error parsing <" + element.getName() + "> element: <" + FORMAT + "> value of " + formatText + " is unrecognized");
+				}
+			} else if (e1.getName().equals(LABEL)) {
+				label = e1.getTextNormalize();
+			} else if (e1.getName().equals(SIMPLIFY_INTERVAL)) {
+				try {
+					simplifyInterval = parseInteger(e1, 1, Integer.MAX_VALUE);
+				} catch (ParseException pe) {
+					throw new ParseException("Error parsing <" + element.getName() + "> element: " + pe.getMessage());
+				}
+			} else {
+				throw new ParseException("Error parsing <" + element.getName() + "> element: <" + e1.getName() + "> is unrecognized");
+			}
+
+		}
+
+		if (schedule != null && sampleSize != -1) {
+			throw new ParseException("Error parsing <" + element.getName() + "> element: specify only one of <" + SAMPLE_SIZE + "> or <" + SCHEDULE + ">.");
+		}
+
+		samplingSchedule.setSamplingRecombinationGraph(simplifyInterval);
+
+		return new RecombinationGraphSampler(sampleSize, schedule, format, label, fileName);
+	}
+
+	private Sampler parseGenealogySampler(Element element, SamplingSchedule samplingSchedule, String fileName) throws ParseException {
+
+		int segmentSize = GenealogyLog.DEFAULT_SEGMENT_SIZE;
+
+		for (Object o : element.getChildren()) {
+			Element e1 = (Element)o;
+			if (e1.getName().equals(SEGMENT_SIZE)) {
+				try {
+					segmentSize = parseInteger(e1, 1, GenealogyLog.MAX_SEGMENT_SIZE);
+				} catch (ParseException pe) {
+					throw new ParseException("Error parsing <" + element.getName() + "> element: " + pe.getMessage());
+				}
+			} else {
+				throw new ParseException("Error parsing <" + element.getName() + "> element: <" + e1.getName() + "> is unrecognized");
+			}
+		}
+
+		if (samplingSchedule.getGenealogyLog() != null) {
+			throw new ParseException("Error parsing <" + element.getName() + "> element: only one genealogy can be logged");
+		}
+
+		GenealogyLog genealogyLog = new GenealogyLog(segmentSize);
+		samplingSchedule.setGenealogyLog(genealogyLog);
+
+		return new GenealogySampler(genealogyLog, fileName);
+	}
+
 	private Sampler parseAlleleFrequencySampler(Element element, SamplingSchedule samplingSchedule, String fileName) throws ParseException {
 
         FeatureAndSites f = parseFeatureAndSites(element);
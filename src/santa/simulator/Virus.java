@@ -50,8 +50,43 @@ public class Virus {
         this.offspringCount = offspringCount;
     }
 
+    /**
+     * Record that the virus is a recombinant of two of the parents it was replicated from.
+     *
+     * @param firstParent the index (among the replicator's parents) of the parent the
+     *                    start of the genome was copied from
+     * @param breakPoints the positions at which the genome switches between the parents
+     *                    (the first breakPointCount). The array is not copied: it is the
+     *                    replicator's own, so it only holds them until the next replication.
+     */
+    public void setRecombination(int firstParent, int[] breakPoints, int breakPointCount) {
+        this.firstParent = firstParent;
+        this.breakPoints = breakPoints;
+        this.breakPointCount = breakPointCount;
+    }
+
+    public boolean isRecombinant() {
+        return breakPoints != null;
+    }
+
+    public int getFirstParent() {
+        return firstParent;
+    }
+
+    public int[] getBreakPoints() {
+        return breakPoints;
+    }
+
+    public int getBreakPointCount() {
+        return breakPointCount;
+    }
+
     private Genome genome = null;
     private Virus parent = null;
     private int offspringCount = 0;
 
+    private int firstParent = 0;
+    private int[] breakPoints = null;
+    private int breakPointCount = 0;
+
 }
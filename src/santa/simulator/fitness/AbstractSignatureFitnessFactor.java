@@ -10,38 +10,55 @@ import santa.simulator.genomes.*;
 
 import java.util.Arrays;
 import java.util.Set;
-import static java.lang.System.arraycopy;
 
 public abstract class AbstractSignatureFitnessFactor extends AbstractFitnessFactor {
 
 
 	public AbstractSignatureFitnessFactor(Feature feature, Set<Integer> sites) {
 		super(feature, sites);
+
+		siteList = new int[sites.size()];
+		int i = 0;
+		for (int site : sites) {
+			siteList[i++] = site;
+		}
+		projection = new SiteProjection(feature, siteList);
+		signature = new byte[siteList.length];
 	}
 
 	public double getLogFitnessChange(StateChange change) {
 		throw new UnsupportedOperationException("getLogFitnessChange should not be called for a SignatureFitnessFactor");
 	}
 
-	protected Signature createSignature(byte[] sequence) {
-		byte state[] = new byte[getSites().size()];
-		int i = 0;
+	/**
+	 * @return a new, empty index over the signatures at this factor's sites.
+	 */
+	SignatureIndex createSignatureIndex() {
+		return new SignatureIndex(siteList, getAlphabet());
+	}
 
-		try {
-			for (Integer site : getSites()) {
-				state[i++] = sequence[site];
-			}
-		} catch(IndexOutOfBoundsException e) {
-			// catch IndexOutOfBoundsException b/c indels may have
-			// caused shifted/shrunk underlying sequence.
-			// The signature will be smaller than anticipated.
-			byte temp[] = new byte[i];
-			arraycopy(state, 0, temp, 0, i);
-			state = temp;
-		}
-		return new Signature(state);
+	/**
+	 * Read the states of the genome at this factor's sites into {@code signature}, without
+	 * building the states of the whole feature.
+	 *
+	 * @return the number of states read (fewer than the sites if indels have shrunk the feature).
+	 */
+	protected int readSignature(Genome genome) {
+		return genome.getStates(projection, signature);
 	}
 
+	/**
+	 * The sites of this factor, in the iteration order of {@code getSites()}.
+	 */
+	protected final int[] siteList;
+
+	/**
+	 * The signature read by the last call to readSignature().
+	 */
+	protected final byte[] signature;
+
+	private final SiteProjection projection;
+
 	static protected final class Signature {
 		byte state[];
 
@@ -1,4 +1,3 @@
-
 package santa.simulator.fitness;
 
 import santa.simulator.genomes.*;
@@ -9,6 +8,8 @@ import java.util.*;
 /**
  * This is an implementation of FitnessFunction which encapsulates empirical estimates of the
  * fitness effects of different states.
+ *
+ * The fitnesses are held in a single flat table, indexed by site * getStateStride() + state.
  */
 public abstract class AbstractSiteFitnessFactor extends AbstractFitnessFactor {
 
@@ -20,7 +21,24 @@ public abstract class AbstractSiteFitnessFactor extends AbstractFitnessFactor {
 	 * Set the fitnesses for every state at every site included.
 	 */
 	protected void initialize(double[][] logFitness) {
+		int stateStride = (logFitness.length > 0 ? logFitness[0].length : 0);
+		double[] table = new double[logFitness.length * stateStride];
+		for (int i = 0; i < logFitness.length; i++) {
+			System.arraycopy(logFitness[i], 0, table, i * stateStride, stateStride);
+		}
+		initialize(table, logFitness.length, stateStride);
+	}
+
+	/**
+	 * Set the fitnesses for every state at every site included, as a flat table of
+	 * siteCount rows of stateStride states.
+	 */
+	protected void initialize(double[] logFitness, int siteCount, int stateStride) {
 		this.logFitness = logFitness;
+		this.siteCount = siteCount;
+		this.stateStride = stateStride;
+		this.changed = new boolean[siteCount];
+		this.changedSiteCount = 0;
 	}
 
 	public boolean updateGeneration(int generation, Population population) {
@@ -31,15 +49,17 @@ public abstract class AbstractSiteFitnessFactor extends AbstractFitnessFactor {
 
 		double logFitness = 0.0;
 
-		// catch IndexOutOfBoundsException b/c indels may have caused site index to shift out of range.
-		if (this.logFitness.length != sequence.length) {
+		// indels may have caused site index to shift out of range.
+		if (siteCount != sequence.length) {
 			logFitness = Double.NEGATIVE_INFINITY;
 		} else {
-			for (int site = 0; site < this.logFitness.length; site++) {
-				logFitness += this.logFitness[site][sequence[site]];
+			int row = 0;
+			for (int site = 0; site < siteCount; site++) {
+				logFitness += this.logFitness[row + sequence[site]];
 				if (logFitness == Double.NEGATIVE_INFINITY) {
 					break;
 				}
+				row += stateStride;
 			}
 		}
 
@@ -53,52 +73,104 @@ public abstract class AbstractSiteFitnessFactor extends AbstractFitnessFactor {
 		// are not handled by this factor.
 
 		// note: a position not covered by the 'logFitness' array
-		// (i.e. generates IndexOutOfBoundsException) also indicates a
-		// site not handled by this factor.
-
-		double fit = 0;	 // neutral fitness
-		double[] logFitnessPosition = null;
-		try {
-			logFitnessPosition = logFitness[change.position];
-		} catch(IndexOutOfBoundsException e) {
-			// catch IndexOutOfBoundsException b/c insertions may have
-			// caused site index to shift out of range.
-
-			// Note: Feature coordinates may shift or shrink due to indels.
-			// FitnessFactor coordinates never change!
-			//
-			// Imagine a Feature defined over nt [1,9] with a
-			// FitnessFactor defined on nt [1,3].  If an insertion
-			// extends the feature to [1,11], attempts acces 
-			// fitness values beyond the original bounds of the
-			// Feature will result in an IndexOutOfBoundsException.
-			// This is treated the same as if the FitnessFactor did
-			// not handle that portion of the Feature.
-
-			// To see how often this happens, uncomment the next line.
-			// System.err.format("IndexOutOfBoundsException: %d is not within feature %s\n", change.position, getFeature().getName());
+		// also indicates a site not handled by this factor.
+
+		// Note: Feature coordinates may shift or shrink due to indels.
+		// FitnessFactor coordinates never change!
+		//
+		// Imagine a Feature defined over nt [1,9] with a
+		// FitnessFactor defined on nt [1,3].  If an insertion
+		// extends the feature to [1,11], attempts acces
+		// fitness values beyond the original bounds of the
+		// Feature would fall outside the table.
+		// This is treated the same as if the FitnessFactor did
+		// not handle that portion of the Feature.
+		if (change.position < 0 || change.position >= siteCount) {
+			return 0;	 // neutral fitness
 		}
-		if (logFitnessPosition != null)
-			fit = logFitnessPosition[change.newState] - logFitnessPosition[change.oldState];
-
-		return fit;
 
+		int row = change.position * stateStride;
+		return logFitness[row + change.newState] - logFitness[row + change.oldState];
 	}
 
 	public double getLogFitness(int i, byte state) {
-		// catch IndexOutOfBoundsException b/c indels may have caused site index to shift out of range.
-		double fit;
-		try {
-			fit = logFitness[i][state];
-		} catch(IndexOutOfBoundsException e) {
-			fit = 0; // neutral fitness
+		// indels may have caused site index to shift out of range.
+		if (i < 0 || i >= siteCount) {
+			return 0; // neutral fitness
 		}
-		return fit;
+		return logFitness[i * stateStride + state];
 	}
 
 	protected void setLogFitness(int i, byte state, double f) {
-		logFitness[i][state] = f;
+		if (!changed[i]) {
+			// keep the fitnesses of the site as they were before this generation's first change.
+			if (changedSiteCount == changedSites.length) {
+				changedSites = Arrays.copyOf(changedSites, changedSites.length * 2);
+				previousLogFitness = Arrays.copyOf(previousLogFitness, previousLogFitness.length * 2);
+			}
+			changedSites[changedSiteCount] = i;
+			previousLogFitness[changedSiteCount] = Arrays.copyOfRange(logFitness, i * stateStride, (i + 1) * stateStride);
+			changedSiteCount++;
+			changed[i] = true;
+		}
+		logFitness[i * stateStride + state] = f;
+	}
+
+	/**
+	 * Forget the sites changed in the previous generation. Subclasses that change
+	 * their fitnesses in updateGeneration() call this first, so that the changes
+	 * can be reported to the FitnessFunction.
+	 */
+	protected void clearChangedSites() {
+		for (int k = 0; k < changedSiteCount; k++) {
+			changed[changedSites[k]] = false;
+			previousLogFitness[k] = null;
+		}
+		changedSiteCount = 0;
+	}
+
+	/**
+	 * @return the number of sites whose fitnesses were changed in the last call to updateGeneration().
+	 */
+	public int getChangedSiteCount() {
+		return changedSiteCount;
 	}
 
-	private double[][] logFitness;
+	/**
+	 * @return the k'th site whose fitnesses were changed in the last call to updateGeneration().
+	 */
+	public int getChangedSite(int k) {
+		return changedSites[k];
+	}
+
+	/**
+	 * @return the log fitnesses, indexed by state, of the k'th changed site before it was changed.
+	 */
+	public double[] getPreviousLogFitness(int k) {
+		return previousLogFitness[k];
+	}
+
+	/**
+	 * @return the number of sites (in the factor's alphabet) covered by the fitness table.
+	 */
+	public int getSiteCount() {
+		return siteCount;
+	}
+
+	/**
+	 * @return the number of entries per site in the fitness table (the states plus the stop codon).
+	 */
+	public int getStateStride() {
+		return stateStride;
+	}
+
+	private double[] logFitness;
+	private int siteCount;
+	private int stateStride;
+
+	// sites changed in the last generation, with their fitnesses before the change.
+	private boolean[] changed;
+	private int[] changedSites = new int[8];
+	private double[][] previousLogFitness = new double[8][];
+	private int changedSiteCount = 0;
 }
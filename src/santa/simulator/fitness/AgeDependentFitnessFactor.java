@@ -9,29 +9,32 @@ package santa.simulator.fitness;
 import santa.simulator.genomes.*;
 import santa.simulator.population.Population;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 public class AgeDependentFitnessFactor extends AbstractSignatureFitnessFactor {
-    private Map<Signature, Integer> birthGenerations;
+    // the signatures alive in the current generation, and those of the previous generation.
+    private SignatureIndex signatures;
+    private SignatureIndex previousSignatures;
+    private int[] birthGenerations = new int[16];
+    private int[] previousBirthGenerations = new int[16];
+    // the log fitness of each signature, computed once per generation.
+    private double[] logFitness = new double[16];
     double declineRate;
     int currentGeneration;
 
     public AgeDependentFitnessFactor(double declineRate, Feature feature, Set<Integer> sites) {
         super(feature, sites);
         this.declineRate = declineRate;
-        this.birthGenerations = new HashMap<Signature, Integer>();
+        this.signatures = createSignatureIndex();
+        this.previousSignatures = createSignatureIndex();
     }
 
 	public double computeLogFitness(byte[] states) {
-        Signature s = createSignature(states);
-        Integer birthGeneration = birthGenerations.get(s);
-
-        if (birthGeneration != null) {
-            double age = currentGeneration - birthGeneration;
-            return Math.max(-10, -age * declineRate);
-        } else
-            return 0;
+        int s = signatures.get(states);
+
+        return (s != -1 ? logFitness[s] : 0);
     }
 
     public boolean updateGeneration(int generation, Population population) {
@@ -40,38 +43,49 @@ public class AgeDependentFitnessFactor extends AbstractSignatureFitnessFactor {
         List<Genome> genomes = population.getGenePool().getGenomes();
 
         /*
-         * We will flag 'living' entries as negative, so that we will toss
-         * positive entries in a second run.
+         * Signatures that are not carried by any genome this generation are
+         * dropped by starting from an empty index; the birth generations of
+         * the survivors are carried over from the previous one.
          */
+        SignatureIndex tmp = previousSignatures;
+        previousSignatures = signatures;
+        signatures = tmp;
+        signatures.clear();
+
+        int[] tmpGenerations = previousBirthGenerations;
+        previousBirthGenerations = birthGenerations;
+        birthGenerations = tmpGenerations;
 
         double sumAges = 0;
         for (Genome genome : genomes) {
-	        byte[] sequence = genome.getStates(getFeature());
-            Signature s = createSignature(sequence);
-            Integer birthGeneration = birthGenerations.get(s);
-
-            if (birthGeneration == null) {
-                birthGenerations.put(s, -currentGeneration);
-            } else {
-                if (birthGeneration > 0) {
-                    birthGenerations.put(s, -birthGeneration);
-                    sumAges += (currentGeneration - birthGeneration) * genome.getFrequency();
+            int count = readSignature(genome);
+            int n = signatures.size();
+            int s = signatures.add(signature, count);
+
+            if (s == n) {
+                if (s == birthGenerations.length) {
+                    birthGenerations = Arrays.copyOf(birthGenerations, birthGenerations.length * 2);
+                }
+                int previous = previousSignatures.get(signature, count);
+                if (previous == -1) {
+                    birthGenerations[s] = currentGeneration;
+                } else {
+                    birthGenerations[s] = previousBirthGenerations[previous];
+                    sumAges += (currentGeneration - birthGenerations[s]) * genome.getFrequency();
                 }
             }
         }
 
-        System.err.println("Average viral genome age: " + sumAges / population.getPopulationSize());
-
-        Set<Entry<Signature, Integer>> entries = birthGenerations.entrySet();
-        for (Iterator<Entry<Signature, Integer>> i = entries.iterator(); i.hasNext();) {
-            Entry<Signature, Integer> e = i.next();
-            if (e.getValue() > 0) {
-                i.remove();
-            } else {
-                e.setValue(-e.getValue());
-            }
+        if (logFitness.length < birthGenerations.length) {
+            logFitness = new double[birthGenerations.length];
+        }
+        for (int s = 0; s < signatures.size(); s++) {
+            double age = currentGeneration - birthGenerations[s];
+            logFitness[s] = Math.max(-10, -age * declineRate);
         }
 
+        System.err.println("Average viral genome age: " + sumAges / population.getPopulationSize());
+
         return true;
     }
 
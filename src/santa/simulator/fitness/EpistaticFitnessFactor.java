@@ -0,0 +1,222 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.*;
+
+import java.util.*;
+
+/**
+ * Pairwise epistasis: each interaction between two sites of a feature adds a log fitness
+ * that depends on the states at both sites, so that e.g. a compensatory mutation can
+ * cancel the cost of a resistance mutation. Pairs of states that are not given are neutral.
+ *
+ * The interactions are held as a sparse graph of sites. The change in fitness caused by a
+ * state change only involves the neighbours of the changed site, whose states are read from
+ * the genome through a SiteProjection, so updating a child's fitness costs O(degree) rather
+ * than a pass over all the interactions.
+ */
+public class EpistaticFitnessFactor extends AbstractFitnessFactor implements InteractingFitnessFactor {
+
+	/**
+	 * An interaction between two (distinct) sites of the feature, in the coordinates and
+	 * alphabet of the feature, with the log fitness of each pair of states.
+	 */
+	public static final class Interaction {
+		public Interaction(int firstSite, int secondSite, double[][] logFitness) {
+			if (firstSite == secondSite) {
+				throw new IllegalArgumentException("An interaction must be between two different sites: " + (firstSite + 1));
+			}
+			this.firstSite = firstSite;
+			this.secondSite = secondSite;
+			this.logFitness = logFitness;
+		}
+
+		public int getFirstSite() {
+			return firstSite;
+		}
+
+		public int getSecondSite() {
+			return secondSite;
+		}
+
+		/**
+		 * @return the log fitness, indexed by the state at the first site and then the state at the second.
+		 */
+		public double[][] getLogFitness() {
+			return logFitness;
+		}
+
+		private final int firstSite;
+		private final int secondSite;
+		private final double[][] logFitness;
+	}
+
+	public EpistaticFitnessFactor(Feature feature, List<Interaction> interactions) {
+		super(feature, getSites(interactions));
+
+		SequenceAlphabet alphabet = getAlphabet();
+		// amino acid tables have a (neutral) row and column for the stop codon.
+		stateStride = alphabet.getStateCount() + (alphabet == SequenceAlphabet.AMINO_ACIDS ? 1 : 0);
+
+		int n = interactions.size();
+		firstSites = new int[n];
+		secondSites = new int[n];
+		logFitness = new double[n * stateStride * stateStride];
+
+		int siteCount = 0;
+		for (int k = 0; k < n; k++) {
+			Interaction interaction = interactions.get(k);
+			firstSites[k] = interaction.getFirstSite();
+			secondSites[k] = interaction.getSecondSite();
+			siteCount = Math.max(siteCount, Math.max(firstSites[k], secondSites[k]) + 1);
+
+			double[][] table = interaction.getLogFitness();
+			for (int i = 0; i < table.length; i++) {
+				for (int j = 0; j < table[i].length; j++) {
+					logFitness[(k * stateStride + i) * stateStride + j] = table[i][j];
+				}
+			}
+		}
+
+		this.siteCount = siteCount;
+
+		// the neighbours of each site, in increasing order so that a SiteProjection over them
+		// only loses the ones that fall off the end of a feature shrunk by indels.
+		int[] degree = new int[siteCount];
+		for (int k = 0; k < n; k++) {
+			degree[firstSites[k]]++;
+			degree[secondSites[k]]++;
+		}
+		neighbourOffsets = new int[siteCount + 1];
+		int maxDegree = 0;
+		for (int i = 0; i < siteCount; i++) {
+			neighbourOffsets[i + 1] = neighbourOffsets[i] + degree[i];
+			maxDegree = Math.max(maxDegree, degree[i]);
+		}
+
+		// each end of an interaction is packed as (neighbour, end) so that sorting the
+		// entries of a site orders them by neighbour.
+		long[] entries = new long[2 * n];
+		int[] next = Arrays.copyOf(neighbourOffsets, siteCount);
+		for (int k = 0; k < n; k++) {
+			entries[next[firstSites[k]]++] = ((long) secondSites[k] << 32) | (2 * k);
+			entries[next[secondSites[k]]++] = ((long) firstSites[k] << 32) | (2 * k + 1);
+		}
+		for (int i = 0; i < siteCount; i++) {
+			Arrays.sort(entries, neighbourOffsets[i], neighbourOffsets[i + 1]);
+		}
+
+		neighbourSites = new int[2 * n];
+		neighbourTables = new int[2 * n];
+		neighbourFirst = new boolean[2 * n];
+		for (int e = 0; e < entries.length; e++) {
+			int end = (int) entries[e];
+			int k = end / 2;
+			neighbourFirst[e] = (end % 2 == 0);
+			neighbourSites[e] = (neighbourFirst[e] ? secondSites[k] : firstSites[k]);
+			neighbourTables[e] = k * stateStride * stateStride;
+		}
+
+		neighbours = new SiteProjection[siteCount];
+		for (int i = 0; i < siteCount; i++) {
+			if (degree[i] > 0) {
+				neighbours[i] = new SiteProjection(feature,
+						Arrays.copyOfRange(neighbourSites, neighbourOffsets[i], neighbourOffsets[i + 1]));
+			}
+		}
+		final int bufferSize = maxDegree;
+		neighbourStates = ThreadLocal.withInitial(() -> new byte[bufferSize]);
+	}
+
+	/**
+	 * @return the number of interactions.
+	 */
+	public int getInteractionCount() {
+		return firstSites.length;
+	}
+
+	public double computeLogFitness(byte[] states) {
+		double result = 0;
+		for (int k = 0; k < firstSites.length; k++) {
+			// indels may have shrunk the feature, leaving an interaction without one of its sites.
+			if (firstSites[k] < states.length && secondSites[k] < states.length) {
+				result += logFitness[(k * stateStride + states[firstSites[k]]) * stateStride + states[secondSites[k]]];
+			}
+		}
+		return result;
+	}
+
+	public double getLogFitnessChange(Genome genome, List<StateChange> changes) {
+		byte[] neighbourStates = this.neighbourStates.get();
+		double delta = 0;
+
+		for (int c = 0; c < changes.size(); c++) {
+			StateChange change = changes.get(c);
+			int site = change.position;
+			if (site >= siteCount || neighbours[site] == null) {
+				continue;
+			}
+
+			int count = genome.getStates(neighbours[site], neighbourStates);
+			int offset = neighbourOffsets[site];
+			for (int i = 0; i < count; i++) {
+				int e = offset + i;
+				// the changes are applied in turn, so a neighbour changed earlier has its new state.
+				byte state = neighbourStates[i];
+				for (int d = 0; d < c; d++) {
+					if (changes.get(d).position == neighbourSites[e]) {
+						state = changes.get(d).newState;
+					}
+				}
+
+				double oldLogFitness = getLogFitness(e, change.oldState, state);
+				double newLogFitness = getLogFitness(e, change.newState, state);
+				if (newLogFitness != oldLogFitness) {
+					delta += newLogFitness - oldLogFitness;
+				}
+			}
+		}
+
+		return delta;
+	}
+
+	public double getLogFitnessChange(StateChange change) {
+		throw new UnsupportedOperationException("getLogFitnessChange should be called with the genome for an EpistaticFitnessFactor");
+	}
+
+	/**
+	 * @return the log fitness of the e'th neighbour entry, given the states at the site and the neighbour.
+	 */
+	private double getLogFitness(int e, byte state, byte neighbourState) {
+		if (neighbourFirst[e]) {
+			return logFitness[neighbourTables[e] + state * stateStride + neighbourState];
+		}
+		return logFitness[neighbourTables[e] + neighbourState * stateStride + state];
+	}
+
+	private static Set<Integer> getSites(List<Interaction> interactions) {
+		Set<Integer> sites = new TreeSet<Integer>();
+		for (Interaction interaction : interactions) {
+			sites.add(interaction.getFirstSite());
+			sites.add(interaction.getSecondSite());
+		}
+		return sites;
+	}
+
+	private final int stateStride;
+	private final int siteCount;
+
+	// the interactions: their sites, and a flat table of stateStride x stateStride log fitnesses for each.
+	private final int[] firstSites;
+	private final int[] secondSites;
+	private final double[] logFitness;
+
+	// the neighbours of each site i are entries neighbourOffsets[i] to neighbourOffsets[i + 1] - 1,
+	// with the offset of the interaction's table and whether site i is its first site.
+	private final int[] neighbourOffsets;
+	private final int[] neighbourSites;
+	private final int[] neighbourTables;
+	private final boolean[] neighbourFirst;
+	private final SiteProjection[] neighbours;
+	// a buffer for the states of a site's neighbours, for each thread that updates fitnesses.
+	private final ThreadLocal<byte[]> neighbourStates;
+}
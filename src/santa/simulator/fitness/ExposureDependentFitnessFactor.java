@@ -9,8 +9,9 @@ package santa.simulator.fitness;
 import santa.simulator.genomes.*;
 import santa.simulator.population.Population;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 /**
  * The exposure dependent fitness function assigns a fitness to an
@@ -24,24 +25,27 @@ import java.util.Map.Entry;
  * is punished in terms of fitness.
  **/
 public class ExposureDependentFitnessFactor extends AbstractSignatureFitnessFactor {
-    private Map<Signature, Double> exposure;
+    // the signatures alive in the current generation, and those of the previous generation.
+    private SignatureIndex signatures;
+    private SignatureIndex previousSignatures;
+    private double[] exposure = new double[16];
+    private double[] previousExposure = new double[16];
+    // the log fitness of each signature, computed once per generation.
+    private double[] logFitness = new double[16];
     double penalty;
     int currentGeneration;
 
     public ExposureDependentFitnessFactor(double penalty, Feature feature, Set<Integer> sites) {
         super(feature, sites);
         this.penalty = penalty;
-        this.exposure = new HashMap<Signature, Double>();
+        this.signatures = createSignatureIndex();
+        this.previousSignatures = createSignatureIndex();
     }
 
     public double computeLogFitness(byte[] states) {
-        Signature s = createSignature(states);
-        Double e = exposure.get(s);
+        int s = signatures.get(states);
 
-        if (e != null) {
-            return Math.max(-10, -e * penalty);
-        } else
-            return 0;
+        return (s != -1 ? logFitness[s] : 0);
     }
 
 
@@ -58,35 +62,40 @@ public class ExposureDependentFitnessFactor extends AbstractSignatureFitnessFact
         List<Genome> genomes = population.getGenePool().getGenomes();
 
         /*
-         * We will flag 'living' entries as negative, so that we will toss
-         * positive entries in a second run.
+         * Alleles that are not present this generation are dropped by starting
+         * from an empty index; the exposure of the survivors is carried over
+         * from the previous one.
          */
+        SignatureIndex tmp = previousSignatures;
+        previousSignatures = signatures;
+        signatures = tmp;
+        signatures.clear();
+
+        double[] tmpExposure = previousExposure;
+        previousExposure = exposure;
+        exposure = tmpExposure;
 
         for (Genome genome : genomes) {
-	        byte[] sequence = genome.getStates(getFeature());
-            Signature s = createSignature(sequence);
-            Double e = exposure.get(s);
+            int count = readSignature(genome);
+            int n = signatures.size();
+            int s = signatures.add(signature, count);
             double d = (double)genome.getFrequency() / population.getPopulationSize();
 
-            if (e == null) {
-                exposure.put(s, -d);
-            } else {
-                if (e > 0) {
-                    exposure.put(s, -e - d);
-                } else {
-                    exposure.put(s, e - d);
-				}
+            if (s == n) {
+                if (s == exposure.length) {
+                    exposure = Arrays.copyOf(exposure, exposure.length * 2);
+                }
+                int previous = previousSignatures.get(signature, count);
+                exposure[s] = (previous == -1 ? 0 : previousExposure[previous]);
             }
+            exposure[s] += d;
         }
 
-        Set<Entry<Signature, Double>> entries = exposure.entrySet();
-        for (Iterator<Entry<Signature, Double>> i = entries.iterator(); i.hasNext();) {
-            Entry<Signature, Double> e = i.next();
-            if (e.getValue() > 0) {
-                i.remove();
-            } else {
-                e.setValue(-e.getValue());
-            }
+        if (logFitness.length < exposure.length) {
+            logFitness = new double[exposure.length];
+        }
+        for (int s = 0; s < signatures.size(); s++) {
+            logFitness[s] = Math.max(-10, -exposure[s] * penalty);
         }
 
         return true;
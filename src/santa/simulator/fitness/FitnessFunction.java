@@ -20,16 +20,39 @@ import java.util.*;
  */
 public final class FitnessFunction	{
 	int generation;
+	// the factors that contribute to each genome's fitness, as given
+	private final List<FitnessFactor> genomeFactors;
+	// the same factors as evaluated, with site factors fused (see compile())
 	private List<FitnessFactor> factors;
+	private List<GlobalFitnessFactor> globalFactors;
+	private double logFitnessOffset = 0;
 	private boolean[] recomputeFactor;
+	// factors whose fitness table changed at a few sites, so cached contributions can be corrected.
+	private boolean[] correctFactor;
+	// the changed sites of those factors, and a buffer for a genome's states at them.
+	private SiteProjection[] changedSites;
+	private byte[] changedStates = new byte[0];
+	// counts the calls to updateGeneration(), to tell which genome caches are current.
+	private int update = 0;
 
 	/**
-	 * A cache of calculated fitness contributions, for each factor,
+	 * A cache of calculated fitness contributions, for each compiled factor,
 	 * that is stored in each Genome.
 	 */
 	public class FitnessGenomeCache {
 		double[] factorContributions;
 
+		/**
+		 * The update (see updateGeneration()) for which the contributions of the
+		 * recomputed factors are up to date, or -1 if they have to be recomputed.
+		 */
+		int update = -1;
+
+		/**
+		 * The update for which the contributions of the other factors are up to date.
+		 */
+		int tableUpdate = -1;
+
 		FitnessGenomeCache() {
 			this.factorContributions = new double[factors.size()];
 		}
@@ -38,22 +61,138 @@ public final class FitnessFunction	{
 			FitnessGenomeCache clone = new FitnessGenomeCache();
 			System.arraycopy(factorContributions, 0,
 					clone.factorContributions, 0, factorContributions.length);
+			clone.update = update;
+			clone.tableUpdate = tableUpdate;
 
 			return clone;
 		}
 	}
 
+	/**
+	 * Reusable arrays for the states of a genome's features, so that computing the fitness
+	 * of many genomes does not allocate them for each genome. The states of amino acid
+	 * features are kept with the genome, so are returned from there rather than copied.
+	 * A StateBuffers may only be used by one thread at a time.
+	 */
+	public static final class StateBuffers {
+		// by feature id
+		private final Map<Integer, byte[]> buffers = new HashMap<Integer, byte[]>();
+
+		/**
+		 * @return the states of the genome's feature, possibly in an array that will be
+		 *         overwritten by the next call for the same feature.
+		 */
+		byte[] getStates(Genome genome, Feature feature) {
+			GenomeDescription description = genome.getDescription();
+			Feature f = description.getFeature(feature.getId());
+			if (f == null || (feature.getAlphabet() == SequenceAlphabet.AMINO_ACIDS && !description.hasRepeatedSites(f))) {
+				return genome.getStates(feature);
+			}
+
+			int length = description.getSiteMap(f).getSiteCount() / feature.getAlphabet().getTokenSize();
+			byte[] buffer = buffers.get(feature.getId());
+			if (buffer == null || buffer.length != length) {
+				// the feature has been resized by indels
+				buffer = new byte[length];
+				buffers.put(feature.getId(), buffer);
+			}
+			return genome.getStates(feature, buffer);
+		}
+	}
+
 	public FitnessFunction(List<FitnessFactor> factors) {
-		this.factors = factors;
-		recomputeFactor = new boolean[factors.size()];
+		// global factors are kept out of the per-genome contributions
+		this.genomeFactors = new ArrayList<FitnessFactor>();
+		this.globalFactors = new ArrayList<GlobalFitnessFactor>();
+		for (FitnessFactor factor : factors) {
+			if (factor instanceof GlobalFitnessFactor) {
+				globalFactors.add((GlobalFitnessFactor) factor);
+			} else {
+				genomeFactors.add(factor);
+			}
+		}
+		compile();
+	}
+
+	/**
+	 * Compile the factors for evaluation. Site fitness factors that share a feature are
+	 * fused into a single table, so their contributions are computed from one lookup of
+	 * the feature's states and one pass over its sites. This is done at the start of each
+	 * epoch, after which the fitness of every genome has to be computed from scratch.
+	 */
+	public void compile() {
+		// the site factors of each feature, by its id
+		List<List<AbstractSiteFitnessFactor>> siteFactors = new ArrayList<List<AbstractSiteFitnessFactor>>();
+		for (FitnessFactor factor : genomeFactors) {
+			if (factor instanceof AbstractSiteFitnessFactor) {
+				AbstractSiteFitnessFactor siteFactor = (AbstractSiteFitnessFactor) factor;
+				int id = factor.getFeature().getId();
+				while (siteFactors.size() <= id) {
+					siteFactors.add(null);
+				}
+				List<AbstractSiteFitnessFactor> group = siteFactors.get(id);
+				if (group == null) {
+					group = new ArrayList<AbstractSiteFitnessFactor>();
+					siteFactors.set(id, group);
+				}
+				AbstractSiteFitnessFactor first = (group.isEmpty() ? siteFactor : group.get(0));
+				if (siteFactor.getSiteCount() == first.getSiteCount() && siteFactor.getStateStride() == first.getStateStride()) {
+					group.add(siteFactor);
+				}
+			}
+		}
+
+		factors = new ArrayList<FitnessFactor>();
+		boolean[] fusedFeatures = new boolean[siteFactors.size()];
+		for (FitnessFactor factor : genomeFactors) {
+			List<AbstractSiteFitnessFactor> group = (factor instanceof AbstractSiteFitnessFactor ?
+					siteFactors.get(factor.getFeature().getId()) : null);
+			if (group != null && group.size() > 1 && group.contains(factor)) {
+				if (!fusedFeatures[factor.getFeature().getId()]) {
+					// the fused factor takes the place of the first of its factors
+					fusedFeatures[factor.getFeature().getId()] = true;
+					factors.add(new FusedSiteFitnessFactor(group));
+				}
+			} else {
+				factors.add(factor);
+			}
+		}
+
+		// the compiled factors are always laid out the same way, so any flags from the
+		// last call to updateGeneration() still apply.
+		if (recomputeFactor == null || recomputeFactor.length != factors.size()) {
+			recomputeFactor = new boolean[factors.size()];
+			correctFactor = new boolean[factors.size()];
+			changedSites = new SiteProjection[factors.size()];
+		}
 	}
 
 	public void updateGeneration(int generation, Population population) {
+		update++;
+
 		int i = 0;
 		for (FitnessFactor f : factors) {
 			recomputeFactor[i] = f.updateGeneration(generation, population);
+			correctFactor[i] = !recomputeFactor[i] && f instanceof AbstractSiteFitnessFactor &&
+					((AbstractSiteFitnessFactor) f).getChangedSiteCount() > 0;
+			changedSites[i] = (correctFactor[i] ? getChangedSites((AbstractSiteFitnessFactor) f) : null);
 			i++;
 		}
+
+		logFitnessOffset = 0;
+		for (GlobalFitnessFactor f : globalFactors) {
+			f.updateLogFitness(generation, population);
+			logFitnessOffset += f.getLogFitness();
+		}
+	}
+
+	/**
+	 * @return the log fitness common to all genomes in this generation, which is not
+	 *         included in the genomes' own log fitness but should be added when selecting
+	 *         parents.
+	 */
+	public double getLogFitnessOffset() {
+		return logFitnessOffset;
 	}
 
 	/**
@@ -64,15 +203,22 @@ public final class FitnessFunction	{
 
 		FitnessGenomeCache cache = genome.getFitnessCache();
 
+		// the changes are relative to the current fitness tables, so bring the cache
+		// up to date with them while the genome still has its pre-mutation states.
+		correctLogFitness(genome, cache);
+
+		// the mutations will change the states seen by the recomputed factors
+		cache.update = -1;
+
 		int i = 0;
 		for (FitnessFactor factor : factors) {
 			double contrib = cache.factorContributions[i];
 
 			if (!recomputeFactor[i]) {
-				Feature feature = genome.getDescription().getFeature(factor.getFeature().getName());
+				Feature feature = genome.getDescription().getFeature(factor.getFeature().getId());
 				if (feature == null) {
 					// note - if indels are active, it is possible for a feature to shrink to nothing,
-					// then looking up a feature by name may fail!
+					// then looking up a feature by id may fail!
 					// When that happens, force the contribution of this factor to be neutral.
 					contrib = 0;
 					continue;
@@ -80,14 +226,11 @@ public final class FitnessFunction	{
 
 				List<StateChange> changes = genome.getChanges(feature, mutations);
 
-				for (StateChange change : changes) {
-					double delta = factor.getLogFitnessChange(change);
-					//handling rare cases of +Inf -Inf sum which could happen due to out of precision values
-					if ((Double.isInfinite(delta) && Double.isInfinite(contrib)) && ((delta > 0 && contrib < 0) || (delta < 0 && contrib > 0))) {
-						contrib = 0;
-					}
-					else{
-						contrib += delta;
+				if (factor instanceof InteractingFitnessFactor) {
+					contrib = addLogFitness(contrib, ((InteractingFitnessFactor) factor).getLogFitnessChange(genome, changes));
+				} else {
+					for (StateChange change : changes) {
+						contrib = addLogFitness(contrib, factor.getLogFitnessChange(change));
 					}
 				}
 			}
@@ -103,13 +246,21 @@ public final class FitnessFunction	{
 
 
 	/**
-	 * Update all the fitness factors that have to recompute
+	 * Update all the fitness factors that have to recompute. Factors only change
+	 * in updateGeneration(), so a genome that has already been updated in this
+	 * generation (e.g. on an earlier clonal replication) is left untouched.
 	 */
 	public void updateLogFitness(Genome genome) {
 		double result = 0;
 
 		FitnessGenomeCache cache = genome.getFitnessCache();
 		if (cache != null) {
+			if (cache.update == update) {
+				return;
+			}
+			correctLogFitness(genome, cache);
+			cache.update = update;
+
 			int i = 0;
 			for (FitnessFactor factor : factors) {
 				double contrib = cache.factorContributions[i];
@@ -125,8 +276,10 @@ public final class FitnessFunction	{
 				i++;
 			}
 		} else {
-			// recompute the fitness function over this genome.
+			// recompute the fitness function over this genome (e.g. after an indel, or when a
+			// genome whose cache was dropped while it was unused is taken up again).
 			computeLogFitness(genome);
+			result = genome.getLogFitness();
 		}
 
 
@@ -142,16 +295,29 @@ public final class FitnessFunction	{
 	 * values for each factor.
 	 */
 	public void computeLogFitness(Genome genome) {
+		computeLogFitness(genome, null);
+	}
+
+	/**
+	 * As computeLogFitness(genome), reading the genome's states into the given buffers.
+	 * This only changes the genome, so the fitnesses of different genomes can be computed
+	 * in parallel, each thread with its own buffers.
+	 *
+	 * @param buffers the buffers for the states, or null to allocate them
+	 */
+	public void computeLogFitness(Genome genome, StateBuffers buffers) {
 		double result = 0;
 
 		FitnessGenomeCache cache = new FitnessGenomeCache();
+		cache.update = update;
+		cache.tableUpdate = update;
 		genome.setFitnessCache(cache);
 
 		int i = 0;
 		for (FitnessFactor f : factors) {
 			Feature feature = f.getFeature();
 
-			byte[] sequence = genome.getStates(feature);
+			byte[] sequence = (buffers != null ? buffers.getStates(genome, feature) : genome.getStates(feature));
 			double contrib = f.computeLogFitness(sequence);
 			cache.factorContributions[i++] = contrib;
 			result += contrib;
@@ -160,4 +326,117 @@ public final class FitnessFunction	{
 		genome.setLogFitness(result);
 	}
 
+	/**
+	 * @return the contribution with the change in log fitness added.
+	 */
+	static double addLogFitness(double contrib, double delta) {
+		//handling rare cases of +Inf -Inf sum which could happen due to out of precision values
+		if ((Double.isInfinite(delta) && Double.isInfinite(contrib)) && ((delta > 0 && contrib < 0) || (delta < 0 && contrib > 0))) {
+			return 0;
+		}
+		return contrib + delta;
+	}
+
+	/**
+	 * Bring the contributions of the factors that are not recomputed up to date with
+	 * their current fitness tables. If the cache was last updated in the previous
+	 * generation, only the sites that changed in this generation are looked at,
+	 * otherwise the contributions are computed from scratch.
+	 */
+	private void correctLogFitness(Genome genome, FitnessGenomeCache cache) {
+		if (cache.tableUpdate == update) {
+			return;
+		}
+
+		int i = 0;
+		for (FitnessFactor factor : factors) {
+			if (cache.tableUpdate == update - 1) {
+				if (correctFactor[i]) {
+					cache.factorContributions[i] += getLogFitnessCorrection(genome, (AbstractSiteFitnessFactor) factor, changedSites[i]);
+				}
+			} else if (!recomputeFactor[i]) {
+				byte[] sequence = genome.getStates(factor.getFeature());
+				cache.factorContributions[i] = factor.computeLogFitness(sequence);
+			}
+			i++;
+		}
+
+		cache.tableUpdate = update;
+	}
+
+	/**
+	 * @return the change in the genome's contribution from a factor due to the sites
+	 *         whose fitnesses changed in this generation.
+	 */
+	private double getLogFitnessCorrection(Genome genome, AbstractSiteFitnessFactor factor, SiteProjection changedSites) {
+		GenomeDescription description = genome.getDescription();
+		Feature feature = description.getFeature(factor.getFeature().getId());
+		if (feature == null) {
+			return 0;
+		}
+
+		int siteCount = description.getSiteMap(feature).getSiteCount();
+		boolean aminoAcids = factor.getAlphabet() == SequenceAlphabet.AMINO_ACIDS;
+
+		// a feature that has been resized by indels has -Inf fitness, whatever the table says.
+		if ((aminoAcids ? siteCount / 3 : siteCount) != factor.getSiteCount()) {
+			return 0;
+		}
+
+		int count = genome.getStates(changedSites, changedStates);
+
+		double delta = 0;
+		for (int k = 0; k < count; k++) {
+			int site = factor.getChangedSite(k);
+			byte state = changedStates[k];
+
+			double oldLogFitness = factor.getPreviousLogFitness(k)[state];
+			double newLogFitness = factor.getLogFitness(site, state);
+			if (newLogFitness != oldLogFitness) {
+				delta += newLogFitness - oldLogFitness;
+			}
+		}
+
+		return delta;
+	}
+
+	/**
+	 * @return the sites whose fitnesses the factor changed in this generation, in the order it reports them.
+	 */
+	private SiteProjection getChangedSites(AbstractSiteFitnessFactor factor) {
+		int[] sites = new int[factor.getChangedSiteCount()];
+		for (int k = 0; k < sites.length; k++) {
+			sites[k] = factor.getChangedSite(k);
+		}
+		if (changedStates.length < sites.length) {
+			changedStates = new byte[sites.length];
+		}
+		return new SiteProjection(factor.getFeature(), sites);
+	}
+
+	/**
+	 * Diagnostic breakdown of a genome's log fitness.
+	 *
+	 * @return the contribution of each factor (in the order given to the constructor, not
+	 *         including global factors). Contributions of factors that have been fused with
+	 *         others are computed from the genome's states.
+	 */
+	public double[] getFactorContributions(Genome genome) {
+		FitnessGenomeCache cache = genome.getFitnessCache();
+		double[] contributions = new double[genomeFactors.size()];
+
+		int i = 0;
+		for (FitnessFactor factor : genomeFactors) {
+			int k = factors.indexOf(factor);
+			if (k != -1 && cache != null) {
+				contributions[i] = cache.factorContributions[k];
+			} else {
+				contributions[i] = factor.computeLogFitness(genome.getStates(factor.getFeature()));
+			}
+			i++;
+		}
+
+		return contributions;
+	}
+
 }
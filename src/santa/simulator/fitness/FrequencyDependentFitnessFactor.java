@@ -9,61 +9,64 @@ package santa.simulator.fitness;
 import santa.simulator.genomes.*;
 import santa.simulator.population.Population;
 
-import java.util.*;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 public class FrequencyDependentFitnessFactor extends AbstractSignatureFitnessFactor {
     private double shape;
-    private Map<Signature, Integer> frequencies;
-    private double populationSize;
+    private SignatureIndex signatures;
+    private int[] frequencies = new int[16];
+    // the log fitness of each signature, computed once per generation.
+    private double[] logFitness = new double[16];
 
     public FrequencyDependentFitnessFactor(double shape, Feature feature, Set<Integer> sites) {
         super(feature, sites);
         this.shape = shape;
-        this.frequencies = new HashMap<Signature, Integer>();
+        this.signatures = createSignatureIndex();
     }
 
     public double computeLogFitness(byte[] states) {
-        Signature s = createSignature(states);
-        Integer count = frequencies.get(s);
+        int s = signatures.get(states);
 
-        if (count != null) {
-            double f = count / populationSize;
-
-            return Math.max(-10, Math.log(1 - Math.pow(f, shape)));
-        } else
-            return 0;
+        return (s != -1 ? logFitness[s] : 0);
     }
 
     public boolean updateGeneration(int generation, Population population) {
-        Set<Entry<Signature, Integer>> entries = frequencies.entrySet();
-        for (Iterator<Entry<Signature, Integer>> i = entries.iterator(); i.hasNext();) {
-            Entry<Signature, Integer> e = i.next();
-            e.setValue(0);
-        }
+        signatures.clear();
 
         List<Genome> genomes = population.getGenePool().getGenomes();
 
         for (Genome genome : genomes) {
-	        byte[] sequence = genome.getStates(getFeature());
-            Signature s = createSignature(sequence);
-            Integer count = frequencies.get(s);
-            frequencies.put(s, count == null ? genome.getFrequency() : count + genome.getFrequency());
+            int count = readSignature(genome);
+            int n = signatures.size();
+            int s = signatures.add(signature, count);
+            if (s == n) {
+                // a signature not seen before this generation
+                if (s == frequencies.length) {
+                    frequencies = Arrays.copyOf(frequencies, frequencies.length * 2);
+                }
+                frequencies[s] = 0;
+            }
+            frequencies[s] += genome.getFrequency();
         }
 
-        entries = frequencies.entrySet();
-        //System.err.println("States:");
-        for (Iterator<Entry<Signature, Integer>> i = entries.iterator(); i.hasNext();) {
-            Entry<Signature, Integer> e = i.next();
-            if (e.getValue() == 0) {
-                i.remove();
+        double populationSize = population.getPopulationSize();
+
+        if (logFitness.length < frequencies.length) {
+            logFitness = new double[frequencies.length];
+        }
+        for (int s = 0; s < signatures.size(); s++) {
+            // signatures carried only by dead genomes have a zero count and are treated as absent.
+            if (frequencies[s] > 0) {
+                double f = frequencies[s] / populationSize;
+
+                logFitness[s] = Math.max(-10, Math.log(1 - Math.pow(f, shape)));
             } else {
-                //System.err.println("entry: " + e.getKey() + ": " + e.getValue());
+                logFitness[s] = 0;
             }
         }
 
-        this.populationSize = population.getPopulationSize();
-
         return true;
     }
 
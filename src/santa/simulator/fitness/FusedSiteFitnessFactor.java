@@ -0,0 +1,89 @@
+package santa.simulator.fitness;
+
+import santa.simulator.population.Population;
+
+import java.util.*;
+
+/**
+ * The sum of several site fitness factors on the same feature, held in a single table
+ * so that the FitnessFunction only has to get the feature's states and walk its sites
+ * once for all of them. Built by FitnessFunction.compile().
+ *
+ * Changes to the fitnesses of the member factors (e.g. fluctuations) are copied into the
+ * fused table in updateGeneration() and reported as changes of this factor.
+ */
+final class FusedSiteFitnessFactor extends AbstractSiteFitnessFactor {
+
+	FusedSiteFitnessFactor(List<AbstractSiteFitnessFactor> factors) {
+		super(factors.get(0).getFeature(), getSites(factors));
+		this.factors = factors;
+
+		AbstractSiteFitnessFactor first = factors.get(0);
+		int siteCount = first.getSiteCount();
+		int stateStride = first.getStateStride();
+
+		double[] table = new double[siteCount * stateStride];
+		for (AbstractSiteFitnessFactor factor : factors) {
+			if (factor.getSiteCount() != siteCount || factor.getStateStride() != stateStride) {
+				throw new IllegalArgumentException("Fitness factors on feature " + first.getFeature().getName() + " have different tables");
+			}
+			for (int i = 0; i < siteCount; i++) {
+				for (int j = 0; j < stateStride; j++) {
+					table[i * stateStride + j] += factor.getLogFitness(i, (byte) j);
+				}
+			}
+		}
+
+		initialize(table, siteCount, stateStride);
+	}
+
+	public boolean updateGeneration(int generation, Population population) {
+		clearChangedSites();
+
+		boolean recompute = false;
+		for (AbstractSiteFitnessFactor factor : factors) {
+			if (factor.updateGeneration(generation, population)) {
+				recompute = true;
+			}
+			// copy the changes straight away in case a factor appears more than once.
+			for (int k = 0; k < factor.getChangedSiteCount(); k++) {
+				updateSite(factor.getChangedSite(k));
+			}
+		}
+
+		if (recompute) {
+			for (int i = 0; i < getSiteCount(); i++) {
+				updateSite(i);
+			}
+		}
+
+		return recompute;
+	}
+
+	private void updateSite(int i) {
+		for (int j = 0; j < getStateStride(); j++) {
+			double logFitness = 0;
+			for (AbstractSiteFitnessFactor factor : factors) {
+				logFitness += factor.getLogFitness(i, (byte) j);
+			}
+			setLogFitness(i, (byte) j, logFitness);
+		}
+	}
+
+	/**
+	 * @return the factors summed by this one.
+	 */
+	public List<AbstractSiteFitnessFactor> getFactors() {
+		return factors;
+	}
+
+	private static Set<Integer> getSites(List<AbstractSiteFitnessFactor> factors) {
+		Set<Integer> sites = new TreeSet<Integer>();
+		for (AbstractSiteFitnessFactor factor : factors) {
+			sites.addAll(factor.getSites());
+		}
+		return sites;
+	}
+
+	private final List<AbstractSiteFitnessFactor> factors;
+}
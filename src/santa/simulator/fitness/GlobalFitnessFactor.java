@@ -0,0 +1,37 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.StateChange;
+import santa.simulator.population.Population;
+
+/**
+ * A fitness factor that contributes the same log fitness to every genome, for example
+ * one that depends only on the size of the population.
+ *
+ * The FitnessFunction does not store the contribution of these factors in the genomes
+ * but adds their sum as a single offset when parents are selected, so a change in the
+ * factor never requires the genome fitnesses to be recomputed.
+ */
+public interface GlobalFitnessFactor extends FitnessFactor {
+
+	/**
+	 * Advance to the next generation, recomputing the contribution if it has changed. This
+	 * is called by the FitnessFunction instead of updateGeneration().
+	 */
+	void updateLogFitness(int generation, Population population);
+
+	/**
+	 * @return the log fitness contributed to every genome in the current generation.
+	 */
+	double getLogFitness();
+
+	/**
+	 * A global factor contributes nothing to the genomes' own fitness.
+	 */
+	default double computeLogFitness(byte[] states) {
+		return 0;
+	}
+
+	default double getLogFitnessChange(StateChange change) {
+		return 0;
+	}
+}
@@ -0,0 +1,25 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.StateChange;
+
+import java.util.List;
+
+/**
+ * A fitness factor in which the effect of a change at one site depends on the states
+ * at other sites, for example through epistatic interactions between pairs of sites.
+ *
+ * The change in fitness caused by a set of mutations cannot be found from each state
+ * change on its own, so the FitnessFunction passes all the changes to the factor together
+ * with the genome (which still has its states from before the mutations) instead of
+ * calling getLogFitnessChange(StateChange).
+ */
+public interface InteractingFitnessFactor extends FitnessFactor {
+
+	/**
+	 * @param genome the genome, before the changes are applied
+	 * @param changes the state changes (at most one per site) of the factor's feature
+	 * @return the change in log fitness when all the changes are applied to the genome.
+	 */
+	double getLogFitnessChange(Genome genome, List<StateChange> changes);
+}
@@ -3,10 +3,14 @@ package santa.simulator.fitness;
 import java.util.Set;
 
 import santa.simulator.genomes.Feature;
-import santa.simulator.genomes.StateChange;
 import santa.simulator.population.Population;
 
-public class PopulationSizeDependentFitnessFactor extends AbstractFitnessFactor {
+/**
+ * Reduces the fitness of every genome as the population approaches a maximum size.
+ * As the contribution is the same for all genomes, it is applied as a global offset
+ * by the FitnessFunction rather than being stored in each genome.
+ */
+public class PopulationSizeDependentFitnessFactor extends AbstractFitnessFactor implements GlobalFitnessFactor {
 
 	private int max;
 	private double declineRate;
@@ -21,26 +25,19 @@ public class PopulationSizeDependentFitnessFactor extends AbstractFitnessFactor
 		this.declineRate = declineRate;
 	}
 	
-	public boolean updateGeneration(int generation, Population population) {
+	public void updateLogFitness(int generation, Population population) {
 		//we should only be updating if population size changed
 		if(population.getPopulationSize() != populationSize) {
 			populationSize = population.getPopulationSize();
-			// get the population mean fitness without the contribution of this factor in the previous generation
-			double meanFitness = population.getMeanFitness() - logFitness;
+			// the population mean fitness, which does not include the contribution of this factor
+			double meanFitness = population.getMeanFitness();
 			// calculate the new factor
 			GeneralisedLogisticFunction glf = new GeneralisedLogisticFunction(1-meanFitness, 0, -declineRate, max);
 			logFitness = glf.getFunctionValue(populationSize);
-			//System.err.println("DEBUG: "+populationSize+" "+meanFitness+" "+logFitness);
-			return true;
 		}
-		return false;
 	}
 
-	public double computeLogFitness(byte[] states) {		
-		return logFitness;
-	}
-
-	public double getLogFitnessChange(StateChange change) {
+	public double getLogFitness() {
 		return logFitness;
 	}
 	
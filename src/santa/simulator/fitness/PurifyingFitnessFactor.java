@@ -23,6 +23,7 @@ public class PurifyingFitnessFactor extends AbstractSiteFitnessFactor {
     private PurifyingFitnessModel valueModel;
     private double fluctuateRate;
     private double fluctuateLogFitnessLimit;
+    private int[] siteList = null;
 
     public PurifyingFitnessFactor(PurifyingFitnessRank rank,
                                     PurifyingFitnessModel valueModel,
@@ -63,22 +64,46 @@ public class PurifyingFitnessFactor extends AbstractSiteFitnessFactor {
         initialize(logFitness);
     }
 
+    /**
+     * Fluctuates the fitnesses of each site with probability fluctuateRate. The changed
+     * sites are reported through getChangedSite() so only those need to be corrected
+     * in each genome's cached fitness.
+     *
+     * @return false as the fitness never has to be recomputed from scratch.
+     */
     @Override
     public boolean updateGeneration(int generation, Population population) {
-        boolean changed = false;
+        clearChangedSites();
 
         if (fluctuateRate != 0) {
+            if (siteList == null) {
+                siteList = new int[getSites().size()];
+                int k = 0;
+                for (int site : getSites()) {
+                    siteList[k++] = site;
+                }
+            }
 
-	        for (int site : getSites()) {
-                double p = Random.nextUniform(0, 1);
-                if (p < fluctuateRate) {
+            if (fluctuateRate >= 1) {
+                for (int site : siteList) {
                     changeFitnessAt(site);
-                    changed = true;
+                }
+            } else {
+                // draw the gaps between fluctuating sites from a geometric distribution
+                // rather than drawing a uniform for every site.
+                double logNotFluctuate = Math.log(1 - fluctuateRate);
+                double k = -1;
+                while (true) {
+                    k += 1 + Math.floor(Math.log(Random.nextUniform(0, 1)) / logNotFluctuate);
+                    if (k >= siteList.length) {
+                        break;
+                    }
+                    changeFitnessAt(siteList[(int)k]);
                 }
             }
         }
 
-        return changed;
+        return false;
     }
 
     private void changeFitnessAt(int i) {
@@ -0,0 +1,222 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.SequenceAlphabet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense integer indices to the signatures (the states at a fixed list of
+ * sites) seen by a signature fitness factor, so that the factor can keep its
+ * per-signature values in primitive arrays.
+ *
+ * Signatures of up to 12 amino acid sites (5 bits per state) or 32 nucleotide
+ * sites (2 bits per state) are packed into a long and stored in an open-addressing
+ * table with linear probing, so looking up a genome's signature allocates nothing.
+ * Larger site sets, and signatures truncated because an indel shrank the feature,
+ * fall back to a HashMap keyed on the byte array of states.
+ *
+ * Entries are never removed individually; factors rebuild the index each generation
+ * with clear().
+ */
+final class SignatureIndex {
+
+	private static final int AMINO_ACID_BITS = 5;
+	private static final int NUCLEOTIDE_BITS = 2;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	SignatureIndex(int[] sites, SequenceAlphabet alphabet) {
+		this.sites = sites;
+		this.bitsPerState = (alphabet == SequenceAlphabet.AMINO_ACIDS ? AMINO_ACID_BITS : NUCLEOTIDE_BITS);
+		this.packed = sites.length * bitsPerState <= Long.SIZE;
+
+		int maxSite = -1;
+		for (int site : sites) {
+			maxSite = Math.max(maxSite, site);
+		}
+		this.maxSite = maxSite;
+
+		this.identity = new int[sites.length];
+		for (int i = 0; i < sites.length; i++) {
+			identity[i] = i;
+		}
+
+		keys = new long[INITIAL_CAPACITY];
+		slots = new int[INITIAL_CAPACITY];
+		Arrays.fill(slots, -1);
+	}
+
+	/**
+	 * @return the number of distinct signatures in the index.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all signatures. The storage is kept for reuse.
+	 */
+	void clear() {
+		if (packedCount > 0) {
+			Arrays.fill(slots, -1);
+			packedCount = 0;
+		}
+		unpacked.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return the index of the signature of the given feature states, or -1 if it is not present.
+	 */
+	int get(byte[] states) {
+		return get(states, sites, countSites(states.length));
+	}
+
+	/**
+	 * @return the index of the signature read with the factor's SiteProjection (the states
+	 *         at the sites, in order, of which count were read), or -1 if it is not present.
+	 */
+	int get(byte[] signature, int count) {
+		return get(signature, identity, count);
+	}
+
+	private int get(byte[] states, int[] index, int count) {
+		if (packed && count == sites.length) {
+			long key = pack(states, index);
+			int mask = keys.length - 1;
+			for (int i = mix(key) & mask; slots[i] != -1; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return slots[i];
+				}
+			}
+			return -1;
+		}
+		Integer slot = unpacked.get(createSignature(states, index, count));
+		return (slot == null ? -1 : slot);
+	}
+
+	/**
+	 * Look up the signature of the given feature states, adding it if it is not yet present.
+	 * New signatures are numbered consecutively from zero, so {@code add(states) == size() - 1}
+	 * when the signature is new.
+	 *
+	 * @return the index of the signature.
+	 */
+	int add(byte[] states) {
+		return add(states, sites, countSites(states.length));
+	}
+
+	/**
+	 * Look up a signature read with the factor's SiteProjection, adding it if it is not yet present.
+	 *
+	 * @return the index of the signature.
+	 */
+	int add(byte[] signature, int count) {
+		return add(signature, identity, count);
+	}
+
+	private int add(byte[] states, int[] index, int count) {
+		if (packed && count == sites.length) {
+			long key = pack(states, index);
+			int mask = keys.length - 1;
+			int i = mix(key) & mask;
+			for (; slots[i] != -1; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return slots[i];
+				}
+			}
+			keys[i] = key;
+			slots[i] = size;
+			packedCount++;
+			if (packedCount * 2 > keys.length) {
+				rehash();
+			}
+			return size++;
+		}
+		AbstractSignatureFitnessFactor.Signature s = createSignature(states, index, count);
+		Integer slot = unpacked.get(s);
+		if (slot != null) {
+			return slot;
+		}
+		unpacked.put(s, size);
+		return size++;
+	}
+
+	private long pack(byte[] states, int[] index) {
+		long key = 0;
+		for (int i : index) {
+			key = (key << bitsPerState) | states[i];
+		}
+		return key;
+	}
+
+	/**
+	 * indels may have shifted or shrunk the underlying sequence, in which
+	 * case the signature will be smaller than anticipated.
+	 *
+	 * @return the number of sites (from the first) that fall within a feature of the given length.
+	 */
+	private int countSites(int length) {
+		if (length > maxSite) {
+			return sites.length;
+		}
+		int n = 0;
+		while (n < sites.length && sites[n] < length) {
+			n++;
+		}
+		return n;
+	}
+
+	private AbstractSignatureFitnessFactor.Signature createSignature(byte[] states, int[] index, int count) {
+		byte[] state = new byte[count];
+		for (int i = 0; i < count; i++) {
+			state[i] = states[index[i]];
+		}
+		return new AbstractSignatureFitnessFactor.Signature(state);
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldSlots = slots;
+
+		keys = new long[oldKeys.length * 2];
+		slots = new int[oldSlots.length * 2];
+		Arrays.fill(slots, -1);
+
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldSlots[j] != -1) {
+				int i = mix(oldKeys[j]) & mask;
+				while (slots[i] != -1) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				slots[i] = oldSlots[j];
+			}
+		}
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private final int[] sites;
+	// the index of each site in a signature read with a SiteProjection.
+	private final int[] identity;
+	private final int maxSite;
+	private final int bitsPerState;
+	private final boolean packed;
+
+	// open-addressing table for packed signatures; a slot of -1 marks an empty bucket.
+	private long[] keys;
+	private int[] slots;
+	private int packedCount = 0;
+
+	private final Map<AbstractSignatureFitnessFactor.Signature, Integer> unpacked =
+			new HashMap<AbstractSignatureFitnessFactor.Signature, Integer>();
+
+	private int size = 0;
+}
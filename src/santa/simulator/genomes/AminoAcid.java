@@ -175,4 +175,27 @@ public class AminoAcid {
 			}
 	};
 
+	/**
+	 * The standard genetic code as a flat table, indexed by
+	 * (first * 16) + (second * 4) + third nucleotide.
+	 */
+	public static final byte CODON_TABLE[] = new byte[64];
+
+	static {
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				for (int k = 0; k < 4; k++) {
+					CODON_TABLE[(i << 4) | (j << 2) | k] = STANDARD_GENETIC_CODE[i][j][k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the amino acid coded for by the given nucleotides.
+	 */
+	public static byte translate(byte first, byte second, byte third) {
+		return CODON_TABLE[(first << 4) | (second << 2) | third];
+	}
+
 }
@@ -3,6 +3,7 @@ package santa.simulator.genomes;
 import santa.simulator.fitness.FitnessFunction;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * @author Andrew Rambaut
@@ -10,13 +11,67 @@ import java.util.*;
  * @version $Id: BaseGenePool.java,v 1.7 2006/07/19 12:53:05 kdforc0 Exp $
  */
 public abstract class BaseGenePool implements GenePool {
+    // the fewest live genomes for which it is worth recomputing fitnesses on another thread.
+    private static final int MIN_GENOMES_PER_THREAD = 128;
+
     protected int uniqueGenomeCount = 0;
     protected final int[][] stateFrequencies;
-    protected final LinkedList<Genome> genomes = new LinkedList<Genome>();
-    protected final LinkedList<Genome> unusedGenomes = new LinkedList<Genome>();
 
-    public LinkedList<Genome> getGenomes() {
-        return genomes;
+    /*
+     * The genomes are held in an arena of slots, which are never given up: a genome that
+     * is killed keeps its slot, which goes on a free list to be reused by the next genome
+     * created. The slots of the genomes in use are kept in a dense list, from which a
+     * killed genome is removed by moving the last one into its place.
+     */
+    private BaseGenome[] slots = new BaseGenome[16];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int[] liveSlots = new int[16];
+    private int liveCount = 0;
+    // the position of each slot in liveSlots, or -1 if it is free.
+    private int[] livePositions = new int[16];
+
+    private final List<Genome> liveGenomes = new LiveGenomeList();
+
+    private final List<GenePoolListener> listeners = new ArrayList<GenePoolListener>();
+
+    /*
+     * The nucleotide frequencies, kept up to date from the events of the pool. The matrix
+     * is only attached as a listener (and built from the genomes in use) when the
+     * frequencies are first asked for, so that a run which never asks for them does not
+     * pay for recording the events.
+     */
+    private final StateFrequencyMatrix frequencyMatrix;
+    private boolean frequencyMatrixAttached = false;
+
+    /*
+     * The events of the current generation that have not yet been delivered to the
+     * listeners (see GenePoolListener): the genomes born, with the parent (or null) and
+     * mutations of each (and the second parent and breakpoints of a recombinant), the
+     * slots whose frequency may have changed and the slots killed.
+     * The frequency last reported for each slot is kept, so that each genome's change
+     * in frequency is delivered once, however it was made.
+     */
+    private final List<Genome> bornGenomes = new ArrayList<Genome>();
+    private final List<Genome> bornParents = new ArrayList<Genome>();
+    private final List<SortedSet<Mutation>> bornMutations = new ArrayList<SortedSet<Mutation>>();
+    private final List<Genome> bornSecondParents = new ArrayList<Genome>();
+    private final List<int[]> bornBreakPoints = new ArrayList<int[]>();
+    private int[] touchedSlots = new int[16];
+    private int touchedCount = 0;
+    private int[] killedSlots = new int[16];
+    private int killedCount = 0;
+    private boolean[] touched = new boolean[16];
+    private boolean[] killed = new boolean[16];
+    private int[] reportedFrequencies = new int[16];
+
+    /**
+     * @return the genomes that are in use (that have been created or duplicated and not yet
+     *         killed), in no particular order. The list is a read-only view of the pool.
+     */
+    public List<Genome> getGenomes() {
+        return liveGenomes;
     }
 
     public BaseGenePool() {
@@ -24,13 +79,285 @@ public abstract class BaseGenePool implements GenePool {
 		// We cannot use a fixed-size array to represent the state frequencies as genomes may be different sizes.
 		// what do we use the state frequencies for anyway?
         stateFrequencies = new int[GenomeDescription.root.getGenomeLength()][4];
+        frequencyMatrix = new StateFrequencyMatrix(GenomeDescription.root.getGenomeLength());
     }
 
     public void initialize() {
-        unusedGenomes.clear();
-        //unusedGenomes.addAll(genomes);
-        genomes.clear();
+        Arrays.fill(slots, 0, slotCount, null);
+        slotCount = 0;
+        freeCount = 0;
+        liveCount = 0;
         uniqueGenomeCount = 0;
+
+        clearEvents();
+        Arrays.fill(touched, false);
+        Arrays.fill(killed, false);
+        Arrays.fill(reportedFrequencies, 0);
+        if (frequencyMatrixAttached) {
+            detachFrequencyMatrix();
+        }
+        for (GenePoolListener listener : listeners) {
+            listener.genePoolInitialized();
+        }
+    }
+
+    public void addGenePoolListener(GenePoolListener listener) {
+        if (listeners.isEmpty()) {
+            // changes are not recorded while there are no listeners, so start from the current frequencies.
+            clearEvents();
+            for (int slot = 0; slot < slotCount; slot++) {
+                reportedFrequencies[slot] = (livePositions[slot] != -1 ? slots[slot].getFrequency() : 0);
+                touched[slot] = false;
+                killed[slot] = false;
+            }
+        }
+        listeners.add(listener);
+    }
+
+    public void removeGenePoolListener(GenePoolListener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            clearEvents();
+            Arrays.fill(touched, false);
+            Arrays.fill(killed, false);
+        }
+    }
+
+    /**
+     * Deliver the events of the generation to the listeners.
+     */
+    public void finishGeneration(int generation) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        deliverEvents();
+        for (GenePoolListener listener : listeners) {
+            listener.generationFinished(generation);
+        }
+    }
+
+    /**
+     * Record the birth of a genome (which has been given its frequency), as a duplicate of
+     * parent with the given mutations, or created from a sequence if parent is null.
+     */
+    protected void genomeBorn(Genome parent, Genome genome, SortedSet<Mutation> mutations) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        bornGenomes.add(genome);
+        bornParents.add(parent);
+        bornMutations.add(mutations);
+        bornSecondParents.add(null);
+        bornBreakPoints.add(null);
+        touchGenome(genome);
+    }
+
+    /**
+     * Record the birth of a recombinant of the parents (see createRecombinantGenome()).
+     */
+    protected void recombinantBorn(Genome[] parents, int[] breakPoints, int breakPointCount, Genome genome) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        bornGenomes.add(genome);
+        bornParents.add(parents[0]);
+        bornMutations.add(null);
+        bornSecondParents.add(parents[1]);
+        // the replicators reuse their breakpoint arrays.
+        bornBreakPoints.add(Arrays.copyOf(breakPoints, breakPointCount));
+        touchGenome(genome);
+    }
+
+    public void mutateGenome(Genome genome, SortedSet<Mutation> mutations) {
+        genome.applyMutations(mutations);
+        if (listeners.isEmpty()) {
+            return;
+        }
+        int i = bornGenomes.lastIndexOf(genome);
+        if (i == -1 || bornMutations.get(i) != null) {
+            throw new IllegalStateException("The genome has already been reported to the listeners");
+        }
+        bornMutations.set(i, mutations);
+    }
+
+    /**
+     * Record that the frequency of a genome may have changed.
+     */
+    protected void touchGenome(Genome genome) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        int slot = ((BaseGenome) genome).poolSlot;
+        if (!touched[slot]) {
+            touched[slot] = true;
+            touchedSlots[touchedCount++] = slot;
+        }
+    }
+
+    /**
+     * Bring the frequency matrix up to date with the events so far.
+     *
+     * @return true if it holds the frequencies of the genomes in the pool.
+     */
+    private boolean isFrequencyMatrixValid() {
+        if (!frequencyMatrixAttached) {
+            if (!uniformPool()) {
+                return false;
+            }
+            // the other listeners are told of the events so far, which the matrix then starts from.
+            deliverEvents();
+            addGenePoolListener(frequencyMatrix);
+            frequencyMatrixAttached = true;
+            frequencyMatrix.rebuild(liveGenomes);
+        }
+        deliverEvents();
+        if (!frequencyMatrix.isValid()) {
+            // after an indel it stays invalid, so stop recording the events for it.
+            detachFrequencyMatrix();
+            return false;
+        }
+        return true;
+    }
+
+    private void detachFrequencyMatrix() {
+        removeGenePoolListener(frequencyMatrix);
+        frequencyMatrixAttached = false;
+    }
+
+    /**
+     * @return true if the frequency matrix is following the events of the pool.
+     */
+    boolean isFrequencyMatrixAttached() {
+        return frequencyMatrixAttached;
+    }
+
+    private void deliverEvents() {
+        for (int i = 0; i < bornGenomes.size(); i++) {
+            Genome genome = bornGenomes.get(i);
+            Genome parent = bornParents.get(i);
+            int[] breakPoints = bornBreakPoints.get(i);
+            for (GenePoolListener listener : listeners) {
+                if (breakPoints != null) {
+                    listener.genomeRecombined(parent, bornSecondParents.get(i), breakPoints, genome, bornMutations.get(i));
+                } else if (parent == null) {
+                    listener.genomeCreated(genome);
+                } else {
+                    listener.genomeDuplicated(parent, genome, bornMutations.get(i));
+                }
+            }
+        }
+
+        for (int i = 0; i < touchedCount; i++) {
+            int slot = touchedSlots[i];
+            touched[slot] = false;
+            Genome genome = slots[slot];
+            int frequency = genome.getFrequency();
+            if (frequency != reportedFrequencies[slot]) {
+                for (GenePoolListener listener : listeners) {
+                    listener.frequencyChanged(genome, reportedFrequencies[slot], frequency);
+                }
+                reportedFrequencies[slot] = frequency;
+            }
+        }
+
+        for (int i = 0; i < killedCount; i++) {
+            int slot = killedSlots[i];
+            killed[slot] = false;
+            for (GenePoolListener listener : listeners) {
+                listener.genomeKilled(slots[slot]);
+            }
+        }
+
+        clearEvents();
+    }
+
+    private void clearEvents() {
+        bornGenomes.clear();
+        bornParents.clear();
+        bornMutations.clear();
+        bornSecondParents.clear();
+        bornBreakPoints.clear();
+        touchedCount = 0;
+        killedCount = 0;
+    }
+
+    /**
+     * Give a new genome a slot in the pool, and count it as in use.
+     */
+    protected void addGenome(BaseGenome genome) {
+        if (slotCount == slots.length) {
+            int capacity = slots.length * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+            liveSlots = Arrays.copyOf(liveSlots, capacity);
+            livePositions = Arrays.copyOf(livePositions, capacity);
+            touchedSlots = Arrays.copyOf(touchedSlots, capacity);
+            killedSlots = Arrays.copyOf(killedSlots, capacity);
+            touched = Arrays.copyOf(touched, capacity);
+            killed = Arrays.copyOf(killed, capacity);
+            reportedFrequencies = Arrays.copyOf(reportedFrequencies, capacity);
+        }
+        int slot = slotCount++;
+        slots[slot] = genome;
+        genome.poolSlot = slot;
+        addLiveSlot(slot);
+    }
+
+    /**
+     * @return a genome that was killed, now counted as in use again, or null if there are none.
+     */
+    protected BaseGenome reuseGenome() {
+        if (freeCount == 0) {
+            return null;
+        }
+        int slot = freeSlots[--freeCount];
+        if (killed[slot]) {
+            // the listeners have to hear of the genome's death before it is born again.
+            deliverEvents();
+        }
+        addLiveSlot(slot);
+        return slots[slot];
+    }
+
+    /**
+     * Count a genome whose frequency has fallen to zero as no longer in use, so that
+     * its slot can be reused.
+     */
+    protected void releaseGenome(BaseGenome genome) {
+        int slot = genome.poolSlot;
+        int position = livePositions[slot];
+        int last = liveSlots[--liveCount];
+        liveSlots[position] = last;
+        livePositions[last] = position;
+        livePositions[slot] = -1;
+        freeSlots[freeCount++] = slot;
+
+        if (!listeners.isEmpty()) {
+            touchGenome(genome);
+            killed[slot] = true;
+            killedSlots[killedCount++] = slot;
+        }
+    }
+
+    private void addLiveSlot(int slot) {
+        liveSlots[liveCount] = slot;
+        livePositions[slot] = liveCount;
+        liveCount++;
+    }
+
+    /**
+     * A read-only view of the genomes in use, in the order of their slots in liveSlots.
+     */
+    private final class LiveGenomeList extends AbstractList<Genome> implements RandomAccess {
+        public Genome get(int index) {
+            if (index < 0 || index >= liveCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + liveCount);
+            }
+            return slots[liveSlots[index]];
+        }
+
+        public int size() {
+            return liveCount;
+        }
     }
 
 
@@ -41,6 +368,20 @@ public abstract class BaseGenePool implements GenePool {
         return newGenome;
     }
 
+	/**
+	 * Recombine the parents' whole sequences. Gene pools whose genomes can be recombined
+	 * without building their sequences override this.
+	 */
+	public Genome createRecombinantGenome(Genome[] parents, int[] breakPoints, int breakPointCount, GenomeDescription gd) {
+		SimpleSequence sequence = SimpleSequence.getRecombinantSequence(toSimpleSequence(parents[0].getSequence()),
+				toSimpleSequence(parents[1].getSequence()), breakPoints, breakPointCount);
+		return createGenome(sequence, gd);
+	}
+
+	private static SimpleSequence toSimpleSequence(Sequence sequence) {
+		return (sequence instanceof SimpleSequence ? (SimpleSequence) sequence : new SimpleSequence(sequence));
+	}
+
 	
     public int[][] getStateFrequencies() {
         calculateStateFrequencies();
@@ -53,9 +394,11 @@ public abstract class BaseGenePool implements GenePool {
 	 * This is a proxy for asking if indel mutations are enabled.
 	 **/
 	private boolean uniformPool() {
-		GenomeDescription gd = genomes.peekFirst().getDescription();
-        for (Genome genome : genomes) {
-			if (genome.getDescription() != gd)
+		if (liveCount == 0)
+			return true;
+		GenomeDescription gd = slots[liveSlots[0]].getDescription();
+        for (int i = 1; i < liveCount; i++) {
+			if (slots[liveSlots[i]].getDescription() != gd)
 				return false;
 		}
 		return true;
@@ -80,18 +423,28 @@ public abstract class BaseGenePool implements GenePool {
 		 * may not be common across genomes.  Fail if all genomes do
 		 * not have the same GenomeDescription.
 		 */
+        SiteProjection projection = new SiteProjection(feature, sites);
+
+        if (feature.getAlphabet() == SequenceAlphabet.NUCLEOTIDES && isFrequencyMatrixValid()) {
+            int[] positions = projection.getPositions(GenomeDescription.root);
+            for (int i = 0; i < positions.length; i++) {
+                frequencyMatrix.getStateFrequencies(positions[i], freqs[i]);
+            }
+            return freqs;
+        }
+
 		if ( !uniformPool() )
 			throw new RuntimeException("Cannot count state frequencies among genomes of different length.");
-		
-        for (Genome genome : genomes) {
+
+        byte[] states = new byte[sites.size()];
+        for (int k = 0; k < liveCount; k++) {
+            Genome genome = slots[liveSlots[k]];
             int freq = genome.getFrequency();
-            byte[] states = genome.getStates(feature);
-            int i = 0;
-            for (int site : sites) {
-                if (states[site] < feature.getAlphabet().getStateCount()) {
-                    freqs[i][states[site]] += freq;
+            int count = genome.getStates(projection, states);
+            for (int i = 0; i < count; i++) {
+                if (states[i] < feature.getAlphabet().getStateCount()) {
+                    freqs[i][states[i]] += freq;
                 }
-                ++i;
             }
         }
 
@@ -135,6 +488,11 @@ public abstract class BaseGenePool implements GenePool {
     }
 
     private void calculateStateFrequencies() {
+        if (isFrequencyMatrixValid()) {
+            frequencyMatrix.getStateFrequencies(stateFrequencies);
+            return;
+        }
+
 		// zero-out the state frequencies matrix
 		for (int[] row: stateFrequencies)
 			Arrays.fill(row, 0);
@@ -145,7 +503,8 @@ public abstract class BaseGenePool implements GenePool {
 		if ( !uniformPool() )
 			throw new RuntimeException("Cannot calculate consensus among genomes of different length.");
 
-        for (Genome genome : genomes) {
+        for (int k = 0; k < liveCount; k++) {
+            Genome genome = slots[liveSlots[k]];
             int freq = genome.getFrequency();
             Sequence sequence = genome.getSequence();
             for (int i = 0; i < sequence.getLength(); i++) {
@@ -154,10 +513,43 @@ public abstract class BaseGenePool implements GenePool {
         }
     }
 
-    public void updateAllFitnesses(FitnessFunction fitnessFunction) {
-        for (Genome genome : genomes) {
-            fitnessFunction.computeLogFitness(genome);
+    /**
+     * Recompute the fitness of every genome in the population from scratch. Only the
+     * live genomes are recomputed, in parallel when there are enough of them; the
+     * unused genomes just drop their cached fitness, which is rebuilt if they are
+     * taken up again (they are then either duplicated from a live genome, which
+     * copies its cache, or given a new sequence and computed from scratch).
+     */
+    public void updateAllFitnesses(final FitnessFunction fitnessFunction) {
+        final List<Genome> liveGenomes = new ArrayList<Genome>();
+        for (int i = 0; i < slotCount; i++) {
+            Genome genome = slots[i];
+            if (genome.getFrequency() > 0) {
+                liveGenomes.add(genome);
+            } else {
+                genome.setFitnessCache(null);
+            }
         }
+
+        final int chunkCount = Math.min(Runtime.getRuntime().availableProcessors(),
+                liveGenomes.size() / MIN_GENOMES_PER_THREAD);
+        if (chunkCount < 2) {
+            FitnessFunction.StateBuffers buffers = new FitnessFunction.StateBuffers();
+            for (Genome genome : liveGenomes) {
+                fitnessFunction.computeLogFitness(genome, buffers);
+            }
+            return;
+        }
+
+        // each chunk of genomes is computed by one thread, with its own buffers.
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            FitnessFunction.StateBuffers buffers = new FitnessFunction.StateBuffers();
+            int start = (int) ((long) liveGenomes.size() * chunk / chunkCount);
+            int end = (int) ((long) liveGenomes.size() * (chunk + 1) / chunkCount);
+            for (int i = start; i < end; i++) {
+                fitnessFunction.computeLogFitness(liveGenomes.get(i), buffers);
+            }
+        });
     }
 
     /**
@@ -185,6 +577,6 @@ public abstract class BaseGenePool implements GenePool {
     }
 
     public int getUnusedGenomeCount() {
-        return unusedGenomes.size();
+        return freeCount;
     }
 }
@@ -18,6 +18,7 @@ public abstract class BaseGenome implements Genome {
 
 	public void setDescription(GenomeDescription gd) {
 		this.descriptor = gd;
+		invalidateStates();
 		assert(this.descriptor.getGenomeLength() == getLength());
 	}
 
@@ -84,15 +85,13 @@ public abstract class BaseGenome implements Genome {
 	 **/
 	public byte[] getNucleotides(Feature feature) {
 		byte[] nucleotides = null;
-		Feature f = descriptor.getFeature(feature.getName());
+		Feature f = descriptor.getFeature(feature.getId());
 		if (f != null) {
-			int sites[] = descriptor.getGenomeSiteTable(descriptor.getFeature(feature.getName()));
-			nucleotides = new byte[sites.length];
+			SiteMap siteMap = descriptor.getSiteMap(f);
+			nucleotides = new byte[siteMap.getSiteCount()];
 
-			int k = 0;
-			for (int i: sites) {
-				nucleotides[k] = getNucleotide(i);
-				k++;
+			for (int k = 0; k < nucleotides.length; k++) {
+				nucleotides[k] = getNucleotide(siteMap.getGenomePosition(k));
 			}
 		}
 		return nucleotides;
@@ -100,8 +99,154 @@ public abstract class BaseGenome implements Genome {
 
 
 	public byte[] getStates(Feature feature) {
-		Sequence seq = new SimpleSequence(getNucleotides(feature));
-		return seq.getStates(feature.getAlphabet());
+		return getStates(feature, null);
+	}
+
+	public byte[] getStates(Feature feature, byte[] buffer) {
+		Feature f = descriptor.getFeature(feature.getId());
+		if (f == null) {
+			return new byte[0];
+		}
+
+		if (feature.getAlphabet() == SequenceAlphabet.AMINO_ACIDS && !descriptor.hasRepeatedSites(f)) {
+			return getAminoAcidStates(f);
+		}
+
+		SiteMap siteMap = descriptor.getSiteMap(f);
+		int tokenSize = feature.getAlphabet().getTokenSize();
+		int length = siteMap.getSiteCount() / tokenSize;
+		byte[] states = (buffer != null && buffer.length == length ? buffer : new byte[length]);
+		if (tokenSize == 3) {
+			for (int aa = 0; aa < length; aa++) {
+				states[aa] = translate(siteMap, aa);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				states[i] = getNucleotide(siteMap.getGenomePosition(i));
+			}
+		}
+		return states;
+	}
+
+	public int getStates(SiteProjection projection, byte[] states) {
+		int count = projection.getSiteCount(descriptor);
+		if (!getCachedStates(projection, count, states)) {
+			int[] positions = projection.getPositions(descriptor);
+			if (projection.getFeature().getAlphabet() == SequenceAlphabet.AMINO_ACIDS) {
+				for (int i = 0; i < count; i++) {
+					states[i] = AminoAcid.translate(getNucleotide(positions[i * 3]),
+							getNucleotide(positions[i * 3 + 1]),
+							getNucleotide(positions[i * 3 + 2]));
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					states[i] = getNucleotide(positions[i]);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Read the states of a projection from the amino acid states kept with the genome, if it has them.
+	 *
+	 * @return false if the genome does not have the states of the projection's feature.
+	 */
+	protected boolean getCachedStates(SiteProjection projection, int count, byte[] states) {
+		if (aminoAcidStates == null || projection.getFeature().getAlphabet() != SequenceAlphabet.AMINO_ACIDS) {
+			return false;
+		}
+		int id = projection.getFeatureId(descriptor);
+		byte[] cached = (id != -1 ? aminoAcidStates[id] : null);
+		if (cached == null) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			states[i] = cached[projection.getSite(i)];
+		}
+		return true;
+	}
+
+	/**
+	 * The translation of an amino acid feature is kept with the genome, and patched
+	 * codon by codon as substitutions are made (see updateStates()), so it is only
+	 * built once per lineage.
+	 *
+	 * @param feature the feature, as held by the genome description
+	 * @return the amino acid states of the feature
+	 */
+	private byte[] getAminoAcidStates(Feature feature) {
+		if (aminoAcidStates == null) {
+			int featureCount = descriptor.getFeatureIdCount();
+			aminoAcidStates = new byte[featureCount][];
+			ownsAminoAcidStates = new boolean[featureCount];
+		}
+
+		int index = feature.getId();
+		byte[] states = aminoAcidStates[index];
+		if (states == null) {
+			SiteMap siteMap = descriptor.getSiteMap(feature);
+			states = new byte[siteMap.getSiteCount() / 3];
+			for (int aa = 0; aa < states.length; aa++) {
+				states[aa] = translate(siteMap, aa);
+			}
+			aminoAcidStates[index] = states;
+			ownsAminoAcidStates[index] = true;
+		}
+		return states;
+	}
+
+	private byte translate(SiteMap siteMap, int aa) {
+		return AminoAcid.translate(getNucleotide(siteMap.getGenomePosition(aa * 3)),
+				getNucleotide(siteMap.getGenomePosition(aa * 3 + 1)),
+				getNucleotide(siteMap.getGenomePosition(aa * 3 + 2)));
+	}
+
+	/**
+	 * Take the amino acid states of another genome with the same sequence. The arrays are
+	 * shared by both genomes until one of them changes a codon.
+	 */
+	protected void inheritStates(BaseGenome source) {
+		if (source.aminoAcidStates != null && source.descriptor == descriptor) {
+			aminoAcidStates = source.aminoAcidStates.clone();
+			ownsAminoAcidStates = new boolean[aminoAcidStates.length];
+			Arrays.fill(source.ownsAminoAcidStates, false);
+		} else {
+			invalidateStates();
+		}
+	}
+
+	/**
+	 * Patch the amino acid states after the nucleotide at the given position has
+	 * been substituted.
+	 */
+	protected void updateStates(int position) {
+		if (aminoAcidStates == null) {
+			return;
+		}
+		for (int index = 0; index < aminoAcidStates.length; index++) {
+			byte[] states = aminoAcidStates[index];
+			if (states != null) {
+				SiteMap siteMap = descriptor.getSiteMap(descriptor.getFeature(index));
+				int k = siteMap.getFeatureSite(position);
+				if (k != -1 && k / 3 < states.length) {
+					if (!ownsAminoAcidStates[index]) {
+						states = states.clone();
+						aminoAcidStates[index] = states;
+						ownsAminoAcidStates[index] = true;
+					}
+					states[k / 3] = translate(siteMap, k / 3);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget the amino acid states, e.g. when the sequence has been replaced or its length changed.
+	 */
+	protected void invalidateStates() {
+		aminoAcidStates = null;
+		ownsAminoAcidStates = null;
 	}
 
 
@@ -138,7 +283,7 @@ public abstract class BaseGenome implements Genome {
 		// the feature.
 		// 
 		
-		Feature feature = descriptor.getFeature(featureByName.getName());
+		Feature feature = descriptor.getFeature(featureByName.getId());
 		assert(feature != null);
 		
 		// Convert mutations from genome-relative coordinates to
@@ -146,9 +291,9 @@ public abstract class BaseGenome implements Genome {
 		// a feature do not result in any changes.  Indels also do not
 		// result in any changes - they are not appropriate to capture
 		// via individual nucleotide changes.
-		int[] featureSiteTable = descriptor.getFeatureSiteTable(feature);
+		SiteMap siteMap = descriptor.getSiteMap(feature);
 		for (Mutation m : mutations) {
-			List<StateChange> c = m.getChanges(this, featureSiteTable);
+			List<StateChange> c = m.getChanges(this, siteMap);
 			changes.addAll(c);
 		}
 
@@ -157,7 +302,6 @@ public abstract class BaseGenome implements Genome {
 		// features, convert nucleotide positions to AA positions, and
 		// convert the states from nucleotides to AA states.
 		if (feature.getAlphabet() == SequenceAlphabet.AMINO_ACIDS) {
-			int[] genomeSiteTable = descriptor.getGenomeSiteTable(feature);
 			byte[] codon = new byte[3];
 			int lastAA = -1;
 			byte oldState = -1;
@@ -171,28 +315,28 @@ public abstract class BaseGenome implements Genome {
 				if (aa != lastAA) {
 					if (lastAA != -1) {
 						// finish of the previous aa change...
-						byte newState = AminoAcid.STANDARD_GENETIC_CODE[codon[0]][codon[1]][codon[2]];
+						byte newState = AminoAcid.translate(codon[0], codon[1], codon[2]);
 						if (newState != oldState) {
 							// don't include synonymous changes
 							aaChanges.add(new StateChange(lastAA, oldState, newState));
 						}
 					}
 
-					// We don't want to access beyond the end of genomeSiteTable, but we do want
+					// We don't want to access beyond the end of the feature, but we do want
 					// to allow amino acid feature coordinates to terminate between codons.  Here
 					// we skip the partial codons that appear at the end of AMINO_ACID features.
 					// Doing so avoids IndexOutOfRange exceptions while supporting feature
 					// boundaries that are temporarily pushed out-of-frame by indels.
-					if (genomeSiteTable.length <= (aa * 3 + 2)) {
+					if (siteMap.getSiteCount() <= (aa * 3 + 2)) {
 						continue;
 					}
 					
 					// and get on with a new one
-					codon[0] = getNucleotide(genomeSiteTable[aa * 3]);
-					codon[1] = getNucleotide(genomeSiteTable[aa * 3 + 1]);
-					codon[2] = getNucleotide(genomeSiteTable[aa * 3 + 2]);
+					codon[0] = getNucleotide(siteMap.getGenomePosition(aa * 3));
+					codon[1] = getNucleotide(siteMap.getGenomePosition(aa * 3 + 1));
+					codon[2] = getNucleotide(siteMap.getGenomePosition(aa * 3 + 2));
 
-					oldState = AminoAcid.STANDARD_GENETIC_CODE[codon[0]][codon[1]][codon[2]];
+					oldState = AminoAcid.translate(codon[0], codon[1], codon[2]);
 
 					if (codon[cp] != change.oldState) {
 						throw new RuntimeException("mismatch in state changes");
@@ -210,7 +354,7 @@ public abstract class BaseGenome implements Genome {
 
 			if (lastAA != -1) {
 				// finish of the last aa change...
-				byte newState = AminoAcid.STANDARD_GENETIC_CODE[codon[0]][codon[1]][codon[2]];
+				byte newState = AminoAcid.translate(codon[0], codon[1], codon[2]);
 				if (newState != oldState) {
 					// don't include synonymous changes
 					aaChanges.add(new StateChange(lastAA, oldState, newState));
@@ -251,4 +395,12 @@ public abstract class BaseGenome implements Genome {
 	private int totalMutationCount = 0;
 
 	FitnessFunction.FitnessGenomeCache fitnessCache;
+
+	// the slot that holds this genome in its gene pool (see BaseGenePool), or -1.
+	int poolSlot = -1;
+
+	// amino acid states for each feature of the description, built on demand, and
+	// whether each array belongs to this genome alone (otherwise it is copied before patching).
+	private byte[][] aminoAcidStates = null;
+	private boolean[] ownsAminoAcidStates = null;
 }
@@ -18,12 +18,37 @@ public class CompactGenePool extends BaseGenePool {
 
     public Genome createGenome(Sequence sequence) {
 
-        CompactGenome.setMasterSequence(sequence);
+        // the genomes in the pool are held as differences from the master, so it
+        // can only be replaced while the pool is empty.
+        if (getGenomes().isEmpty()) {
+            CompactGenome.setMasterSequence(sequence);
+        }
 
         CompactGenome newGenome = new CompactGenome(sequence);
-        genomes.add(newGenome);
+        addGenome(newGenome);
+
+        uniqueGenomeCount++;
+        genomeBorn(null, newGenome, null);
+
+        return newGenome;
+    }
+
+    /**
+     * The recombinant is built from the parents' mutations, so it stays compact.
+     */
+    @Override
+    public Genome createRecombinantGenome(Genome[] parents, int[] breakPoints, int breakPointCount, GenomeDescription gd) {
+        CompactGenome newGenome = (CompactGenome)reuseGenome();
+        if (newGenome == null) {
+            newGenome = new CompactGenome();
+            addGenome(newGenome);
+        }
+        newGenome.recombine((CompactGenome)parents[0], (CompactGenome)parents[1], breakPoints, breakPointCount);
+        newGenome.setDescription(gd);
+        newGenome.setFrequency(0);
 
         uniqueGenomeCount++;
+        recombinantBorn(parents, breakPoints, breakPointCount, newGenome);
 
         return newGenome;
     }
@@ -42,11 +67,10 @@ public class CompactGenePool extends BaseGenePool {
             CompactGenome oldGenome = (CompactGenome)genome;
             CompactGenome newGenome;
 
-            if (unusedGenomes.size() > 0) {
-                newGenome = (CompactGenome)unusedGenomes.removeFirst();
-            } else {
+            newGenome = (CompactGenome)reuseGenome();
+            if (newGenome == null) {
                 newGenome = new CompactGenome();
-                genomes.add(newGenome);
+                addGenome(newGenome);
             }
             newGenome.duplicate(oldGenome);
 
@@ -59,10 +83,12 @@ public class CompactGenePool extends BaseGenePool {
 	        fitnessFunction.updateLogFitness(newGenome);
 
             uniqueGenomeCount++;
+            genomeBorn(genome, newGenome, mutations);
 
             return newGenome;
         } else {
             genome.setFrequency(genome.getFrequency() + 1);
+            touchGenome(genome);
             return genome;
         }
     }
@@ -75,14 +101,16 @@ public class CompactGenePool extends BaseGenePool {
         }
         if (frequency > 1) {
             genome.setFrequency(frequency - 1);
+            touchGenome(genome);
         } else {
             genome.setFrequency(0);
-            unusedGenomes.add(genome);
+            releaseGenome((CompactGenome)genome);
             uniqueGenomeCount--;
         }
     }
 
     public void finishGeneration(int generation) {
+        super.finishGeneration(generation);
 //        boolean updateMaster = (i != 0 && i % 10 == 0);
 //        if (updateMaster) {
 //            System.out.println("updating master");
@@ -43,10 +43,38 @@ public class CompactGenome extends BaseGenome {
 
     public void duplicate(CompactGenome source) {
         setTotalMutationCount(source.getTotalMutationCount());
-        mutations = source.mutations;
+        // the mutations are changed in place by applyMutations(), so each genome has its own.
+        mutations = new TreeSet<Mutation>(source.mutations);
+        inheritStates(source);
+        this.fitnessCache = source.fitnessCache.clone();
         setLogFitness(source.getLogFitness());
     }
 
+    /**
+     * Make this genome a recombinant of two parents, switching from one to the other at
+     * each of the first breakPointCount breakPoints. The recombinant's mutations are those
+     * of each parent within the intervals taken from it, so it is built in time
+     * proportional to the parents' mutations rather than the length of the genome.
+     */
+    void recombine(CompactGenome first, CompactGenome second, int[] breakPoints, int breakPointCount) {
+        TreeSet<Mutation> recombinant = new TreeSet<Mutation>();
+        int lastBreakPoint = 0;
+        CompactGenome parent = first;
+        for (int i = 0; i <= breakPointCount; i++) {
+            int nextBreakPoint = (i < breakPointCount ? breakPoints[i] : getLength());
+            if (nextBreakPoint > lastBreakPoint) {
+                // the mutations are ordered by decreasing position.
+                recombinant.addAll(parent.mutations.subSet(Mutation.getMutation(nextBreakPoint - 1, Nucleotide.A),
+                        Mutation.getMutation(lastBreakPoint - 1, Nucleotide.A)));
+            }
+            lastBreakPoint = nextBreakPoint;
+            parent = (parent == first ? second : first);
+        }
+        mutations = recombinant;
+        setTotalMutationCount(0);
+        invalidateStates();
+    }
+
     public void deleteSubSequence(int pos, int count) {
     	throw new NotImplementedException();
     }
@@ -75,6 +103,61 @@ public class CompactGenome extends BaseGenome {
         return masterSequence.getNucleotide(position);
     }
 
+    /**
+     * Reads the states from the master sequence and then walks the mutations that fall
+     * within the projection's positions once, rather than searching the mutations for
+     * each position. The nucleotides of each codon are packed into its state as they are
+     * found, and translated at the end.
+     */
+    public int getStates(SiteProjection projection, byte[] states) {
+        int count = projection.getSiteCount(descriptor);
+        if (getCachedStates(projection, count, states)) {
+            return count;
+        }
+
+        int tokenSize = projection.getFeature().getAlphabet().getTokenSize();
+        int[] positions = projection.getPositions(descriptor);
+        int[] sortedPositions = projection.getSortedPositions(descriptor);
+        int[] sortedSlots = projection.getSortedSlots(descriptor);
+
+        for (int i = 0; i < count; i++) {
+            states[i] = 0;
+        }
+        for (int slot = 0; slot < positions.length; slot++) {
+            addNucleotide(states, slot, tokenSize, masterSequence.getNucleotide(positions[slot]));
+        }
+
+        if (count > 0 && !mutations.isEmpty()) {
+            int first = sortedPositions[0];
+            int last = sortedPositions[sortedPositions.length - 1];
+            // the mutations are ordered by decreasing position.
+            SortedSet<Mutation> range = mutations.subSet(Mutation.getMutation(last, Nucleotide.A),
+                    Mutation.getMutation(first - 1, Nucleotide.A));
+            int k = sortedPositions.length - 1;
+            for (Mutation m : range) {
+                while (k >= 0 && sortedPositions[k] > m.position) {
+                    k--;
+                }
+                while (k >= 0 && sortedPositions[k] == m.position) {
+                    addNucleotide(states, sortedSlots[k], tokenSize, m.state - masterSequence.getNucleotide(m.position));
+                    k--;
+                }
+            }
+        }
+
+        if (tokenSize == 3) {
+            for (int i = 0; i < count; i++) {
+                states[i] = AminoAcid.CODON_TABLE[states[i]];
+            }
+        }
+        return count;
+    }
+
+    private static void addNucleotide(byte[] states, int slot, int tokenSize, int nucleotide) {
+        int shift = 2 * (tokenSize - 1 - slot % tokenSize);
+        states[slot / tokenSize] += nucleotide << shift;
+    }
+
     public Mutation getMutation(int position) {
         Mutation m = Mutation.getMutation(position, Nucleotide.A);
 
@@ -106,10 +189,13 @@ public class CompactGenome extends BaseGenome {
                     if (m.state != masterSequence.getNucleotide(m.position)) {
                         mutations.add(m);
                     }
+                    updateStates(m.position);
                 }
             } else {
-                if (m.state != masterSequence.getNucleotide(m.position))
+                if (m.state != masterSequence.getNucleotide(m.position)) {
                     mutations.add(m);
+                    updateStates(m.position);
+                }
             }
         }
     }
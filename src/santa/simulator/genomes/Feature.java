@@ -15,9 +15,25 @@ public final class Feature {
 		AMINO_ACID
 	};
 
+	/**
+	 * The id of the feature spanning the whole genome, which is always the first of a description.
+	 */
+	public static final int GENOME_ID = 0;
+
 	public Feature(String name, Type featureType) {
+		this(name, featureType, -1);
+	}
+
+	/**
+	 * @param id the index of the feature in the root genome description, by which it is
+	 *           found in every description derived from it. The features of the root are
+	 *           numbered in order (after the genome feature), so an id of -1 leaves it to
+	 *           the description to number the feature.
+	 */
+	public Feature(String name, Type featureType, int id) {
 		this.name = name;
 		this.featureType = featureType;
+		this.id = id;
 	}
 
 	/** 
@@ -32,6 +48,7 @@ public final class Feature {
 	public Feature(Feature f, int position, int delta) {
 		this.name = f.name;
 		this.featureType = f.featureType;
+		this.id = f.id;
 		for (Fragment fr: f.fragments) {
 			Fragment tmp = new Fragment(fr, position, delta);
 			if (tmp.getLength() > 0)
@@ -43,6 +60,7 @@ public final class Feature {
 	public Feature(Feature f) {
 		this.name = f.name;
 		this.featureType = f.featureType;
+		this.id = f.id;
 		for (Fragment fr: f.fragments) {
 			fragments.add(new Fragment(fr));
 		}
@@ -56,6 +74,18 @@ public final class Feature {
 		return name;
 	}
 
+	/**
+	 * @return the id of the feature, which indexes it in every genome description (see
+	 *         GenomeDescription.getFeature(int)), or -1 if it is not yet in a description.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
 	public Type getFeatureType() {
 		return featureType;
 	}
@@ -181,4 +211,5 @@ public final class Feature {
 
 	private final String name;
 	private final Type featureType;
+	private int id;
 }
@@ -19,12 +19,38 @@ public interface GenePool {
 
     Genome createGenome(Sequence sequence, GenomeDescription gd);
 
+    /**
+     * Create a genome by recombining two parents (the shorter first), switching from one
+     * to the other at each of the first breakPointCount positions in breakPoints (in
+     * increasing order).
+     *
+     * @param gd the description of the recombinant (see GenomeDescription.recombine())
+     */
+    Genome createRecombinantGenome(Genome[] parents, int[] breakPoints, int breakPointCount, GenomeDescription gd);
+
+    /**
+     * Apply mutations to a genome that has just been created by createRecombinantGenome(),
+     * so that the listeners are told of them with its birth.
+     */
+    void mutateGenome(Genome genome, SortedSet<Mutation> mutations);
+
     Genome duplicateGenome(Genome genome, SortedSet<Mutation> mutations, FitnessFunction fitnessFunction);
 
     void killGenome(Genome genome);
 
+    /**
+     * End the generation, delivering its events to the listeners.
+     */
     void finishGeneration(int generation);
 
+    /**
+     * Add a listener to be told of the births, changes in frequency and deaths of the
+     * genomes, in batches at the end of each generation (see GenePoolListener).
+     */
+    void addGenePoolListener(GenePoolListener listener);
+
+    void removeGenePoolListener(GenePoolListener listener);
+
     int[][] getStateFrequencies();
 
     int[][] getStateFrequencies(Feature feature, Set<Integer> sites);
@@ -39,5 +65,8 @@ public interface GenePool {
 
     void updateAllFitnesses(FitnessFunction fitnessFunction);
 
+    /**
+     * @return the genomes in use (not yet killed), as a read-only list.
+     */
     List<Genome> getGenomes();
 }
@@ -0,0 +1,69 @@
+package santa.simulator.genomes;
+
+import java.util.SortedSet;
+
+/**
+ * Follows the genomes of a GenePool as they are born, change frequency and die, so that
+ * statistics of the population can be kept up to date without scanning the pool.
+ *
+ * The events of a generation are collected by the pool and delivered together when the
+ * generation is finished (GenePool.finishGeneration()), to each listener in the order in
+ * which they were added. The pool may deliver the events so far in an earlier batch when
+ * it needs to be up to date, e.g. to answer a query for its state frequencies, so a
+ * generation's events can arrive in more than one batch. Within a batch:
+ * <ul>
+ * <li>the births (genomeCreated, genomeDuplicated or genomeRecombined) come first, in the order they happened;</li>
+ * <li>then a single frequencyChanged for each genome whose frequency has changed, in the order
+ *     the genomes were first touched, giving the frequency before and after the batch;</li>
+ * <li>then genomeKilled for each genome whose frequency fell to zero, in the order they died.</li>
+ * </ul>
+ * A genome is always born before its frequency is reported, and its frequency is reported
+ * as zero before it is killed, so summing the changes in frequency gives the frequencies of
+ * the genomes in the pool. The genomes are passed as they are at the end of the batch: a
+ * killed genome keeps its sequence until the batch has been delivered, as the pool
+ * delivers the events so far before reusing a genome that was killed in the batch.
+ *
+ * A listener is only told about changes made after it was added; the genomes already in
+ * the pool can be found with GenePool.getGenomes().
+ */
+public interface GenePoolListener {
+
+	/**
+	 * A genome has been created from a sequence (e.g. the inoculum).
+	 */
+	void genomeCreated(Genome genome);
+
+	/**
+	 * A genome has been born as a recombinant of two parents, copied from first up to the
+	 * first breakpoint, then from second up to the next, and so on, with the given mutations
+	 * (or null) applied. By default it is treated as created from its sequence.
+	 */
+	default void genomeRecombined(Genome first, Genome second, int[] breakPoints, Genome genome, SortedSet<Mutation> mutations) {
+		genomeCreated(genome);
+	}
+
+	/**
+	 * A genome has been born as a copy of parent with the given mutations applied.
+	 */
+	void genomeDuplicated(Genome parent, Genome genome, SortedSet<Mutation> mutations);
+
+	/**
+	 * The frequency of a genome has changed during the batch.
+	 */
+	void frequencyChanged(Genome genome, int oldFrequency, int newFrequency);
+
+	/**
+	 * A genome's frequency has fallen to zero, and it may be reused after this batch.
+	 */
+	void genomeKilled(Genome genome);
+
+	/**
+	 * All the events of the generation have been delivered.
+	 */
+	void generationFinished(int generation);
+
+	/**
+	 * The pool has been emptied (at the start of a replicate), and any pending events dropped.
+	 */
+	void genePoolInitialized();
+}
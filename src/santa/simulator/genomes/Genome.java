@@ -26,8 +26,31 @@ public interface Genome {
 
 	byte[] getNucleotides(Feature feature);
 
+	/**
+	 * @return the states of the feature in its own alphabet. The array may be shared with
+	 *         the genome (and its relatives) so must not be modified.
+	 */
 	byte[] getStates(Feature feature);
 
+	/**
+	 * As getStates(feature), but the states may be written into the given buffer (if it has
+	 * the length of the feature) rather than a new array.
+	 *
+	 * @param buffer an array to reuse, or null
+	 */
+	byte[] getStates(Feature feature, byte[] buffer);
+
+	/**
+	 * Read the states at a subset of the sites of a feature, without building the states
+	 * of the whole feature.
+	 *
+	 * @param projection the sites to read
+	 * @param states a buffer of at least projection.getSiteCount() states to fill
+	 * @return the number of states read, which is less than the number of sites if indels
+	 *         have shrunk the feature.
+	 */
+	int getStates(SiteProjection projection, byte[] states);
+
 	List<StateChange> getChanges(Feature feature, SortedSet<Mutation> newMutations);
 
     double getLogFitness();
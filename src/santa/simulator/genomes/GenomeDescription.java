@@ -1,5 +1,6 @@
 package santa.simulator.genomes;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 import santa.simulator.Random;
@@ -19,7 +20,7 @@ public final class GenomeDescription {
 
 	private GenomeDescription(int genomeLength, List<Feature> features, List<Sequence> sequences) {
 		this.genomeLength = genomeLength;
-		Feature genomeFeature = new Feature("genome", Feature.Type.NUCLEOTIDE);
+		Feature genomeFeature = new Feature("genome", Feature.Type.NUCLEOTIDE, Feature.GENOME_ID);
 		genomeFeature.addFragment(0, genomeLength);
 
 		this.features = new ArrayList<Feature>();
@@ -31,7 +32,18 @@ public final class GenomeDescription {
 				throw new RuntimeException(msg);
 			}
 
-		this.features.addAll(features);
+		// number the features in order, after the genome feature.
+		for (Feature feature : features) {
+			int id = this.features.size();
+			if (feature.getId() == -1) {
+				feature.setId(id);
+			} else if (feature.getId() != id) {
+				String msg = String.format("Feature %s has id %d but is feature %d of the genome", feature.getName(), feature.getId(), id);
+				throw new RuntimeException(msg);
+			}
+			this.features.add(feature);
+		}
+		indexFeatures();
 
 		if (sequences != null && sequences.size() > 0) {
 			Sequence firstSequence = sequences.get(0);
@@ -82,7 +94,7 @@ public final class GenomeDescription {
 		Feature f = gd.getFeature("genome");
 		if (f.getNucleotideLength() != genomeLength) {
 			// create a new genome-spanning feature
-			Feature tmp = new Feature(f.getName(), f.getFeatureType());
+			Feature tmp = new Feature(f.getName(), f.getFeatureType(), f.getId());
 			tmp.addFragment(0, genomeLength);
 			if (features.size() >= 1) {
 				// Replace the first feature if already present in the list.
@@ -94,6 +106,7 @@ public final class GenomeDescription {
 				features.add(tmp);
 			}
 		}
+		indexFeatures();
 
 		assert(features.size() >= 1);
 	}
@@ -108,13 +121,77 @@ public final class GenomeDescription {
 	 * This method may return a cached instance.
 	 **/
 	static public GenomeDescription applyIndel(GenomeDescription gd, int position, int count) {
-		GenomeDescription tmp = new GenomeDescription(gd, position, count);
-		GenomeDescription gd_cached = GenomeDescription.cache.get(tmp);
+		// the same indels tend to recur in a lineage's relatives, so the descriptions
+		// they lead to are remembered by the description they are applied to.
+		Long key = ((long) position << 32) | (count & 0xffffffffL);
+		GenomeDescription result = gd.getIndelTransition(key);
+		if (result == null) {
+			result = intern(new GenomeDescription(gd, position, count));
+			gd.putIndelTransition(key, result);
+		}
+		return result;
+	}
+
+	private synchronized GenomeDescription getIndelTransition(Long key) {
+		if (indelTransitions == null) {
+			return null;
+		}
+		WeakReference<GenomeDescription> ref = indelTransitions.get(key);
+		return (ref != null ? ref.get() : null);
+	}
+
+	private synchronized void putIndelTransition(Long key, GenomeDescription gd) {
+		if (indelTransitions == null) {
+			// the least recently used transitions are evicted.
+			indelTransitions = new LinkedHashMap<Long, WeakReference<GenomeDescription>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, WeakReference<GenomeDescription>> eldest) {
+					return size() > MAX_INDEL_TRANSITIONS;
+				}
+			};
+		}
+		indelTransitions.put(key, new WeakReference<GenomeDescription>(gd));
+	}
+
+	/**
+	 * Return the cached description equal to gd, or cache gd if there is none.
+	 *
+	 * The cache only holds weak references, so a description is dropped (along with its
+	 * site tables) once no genome or other description refers to it. Long runs with
+	 * indels create a new description for almost every indel, most of which are soon lost.
+	 **/
+	private static synchronized GenomeDescription intern(GenomeDescription gd) {
+		WeakReference<GenomeDescription> ref = cache.get(gd);
+		GenomeDescription gd_cached = (ref != null ? ref.get() : null);
 		if (gd_cached != null) {
+			cacheHits++;
 			return(gd_cached);
-		} 
-		GenomeDescription.cache.put(tmp, tmp);
-		return(tmp);
+		}
+		cacheMisses++;
+		gd.id = nextId++;
+		cache.put(gd, new WeakReference<GenomeDescription>(gd));
+		return(gd);
+	}
+
+	/**
+	 * @return the number of descriptions looked up in the cache that were found there.
+	 */
+	public static synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * @return the number of descriptions looked up in the cache that were added to it.
+	 */
+	public static synchronized long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return the number of descriptions in the cache that have not yet been dropped.
+	 */
+	public static synchronized int getCacheSize() {
+		return cache.size();
 	}
 
 
@@ -130,11 +207,28 @@ public final class GenomeDescription {
 	 * description to another.
 	 */
 	public static GenomeDescription recombine(GenomeDescription[] parents, SortedSet<Integer> breakPoints) {
+		if (parents[0].equals(parents[1]))
+			return parents[0];
+
+		int[] points = new int[breakPoints.size()];
+		int k = 0;
+		for (int bp : breakPoints) {
+			points[k++] = bp;
+		}
+		return recombine(parents[0], parents[1], points, points.length);
+	}
+
+	/**
+	 * As above, with the breakpoints given by the first breakPointCount entries of
+	 * breakPoints (in increasing order).
+	 */
+	public static GenomeDescription recombine(GenomeDescription first, GenomeDescription second, int[] breakPoints, int breakPointCount) {
 		/*
 		  Shortcut - if both parents are identical, then the recombined hybrid will have the same feature description.
 		*/
-		if (parents[0].equals(parents[1]))
-			return parents[0];
+		if (first.equals(second))
+			return first;
+		GenomeDescription[] parents = {first, second};
 		
 		/*
 		  The first call to applyIndel() below truncates
@@ -151,7 +245,8 @@ public final class GenomeDescription {
 		assert(parents[0].genomeLength <= parents[1].genomeLength);
 		GenomeDescription gd = parents[currentGenome];
 		GenomeDescription gd_recomb = null;
-		for (int nextBreakPoint: breakPoints) {
+		for (int i = 0; i < breakPointCount; i++) {
+			int nextBreakPoint = breakPoints[i];
 			gd = new GenomeDescription(parents[currentGenome], 0, -lastBreakPoint);
 			gd = new GenomeDescription(gd, nextBreakPoint-lastBreakPoint, -(parents[currentGenome].genomeLength - nextBreakPoint));
 
@@ -173,13 +268,7 @@ public final class GenomeDescription {
 			}
 		}
 
-		GenomeDescription gd_cached = cache.get(gd_recomb);
-		if (gd_cached != null) {
-			return(gd_cached);
-		} 
-		cache.put(gd_recomb, gd_recomb);
-					
-		return(gd_recomb);
+		return intern(gd_recomb);
 	}
 
 
@@ -189,6 +278,15 @@ public final class GenomeDescription {
 	 */
 	@Override
 	public int hashCode() {
+		// the features only change while a recombinant is being appended, before it is interned.
+		if (!hashed) {
+			hash = computeHashCode();
+			hashed = true;
+		}
+		return hash;
+	}
+
+	private int computeHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
@@ -209,6 +307,12 @@ public final class GenomeDescription {
 		if (!(obj instanceof GenomeDescription))
 			return false;
 		GenomeDescription other = (GenomeDescription) obj;
+		if (id != -1 && other.id != -1) {
+			// interned descriptions are all different
+			return false;
+		}
+		if (hashCode() != other.hashCode())
+			return false;
 		if (features == null) {
 			if (other.features != null)
 				return false;
@@ -230,6 +334,7 @@ public final class GenomeDescription {
 	public void append(GenomeDescription gd) {
 		int len = this.genomeLength;
 		this.genomeLength += gd.genomeLength;
+		this.hashed = false;
 
 		// shift all the incoming features right by len
 		for (Feature feature : gd.features) {
@@ -237,7 +342,7 @@ public final class GenomeDescription {
 				continue;
 			Feature tmp = new Feature(feature);
 			tmp.shift(len);
-			Feature existing = this.getFeature(feature.getName());
+			Feature existing = this.getFeature(feature.getId());
 			if (existing != null) {
 				// collapse identically named features
 				existing.merge(tmp);
@@ -248,9 +353,10 @@ public final class GenomeDescription {
 		// Replace the feature named 'genome'.
 		Feature f = this.features.get(0);
 		assert(f.getName().equals("genome"));
-		Feature tmp = new Feature(f.getName(), f.getFeatureType());
+		Feature tmp = new Feature(f.getName(), f.getFeatureType(), f.getId());
 		tmp.addFragment(0, this.genomeLength);
 		this.features.set(0, tmp);
+		indexFeatures();
 
 	}
 	
@@ -273,12 +379,27 @@ public final class GenomeDescription {
 		}
 
 		GenomeDescription.root = new GenomeDescription(genomeLength,features,sequences);
+
+		// the root is interned too, so that indels that restore its layout lead back to it.
+		synchronized (GenomeDescription.class) {
+			cache.remove(root);
+			root.id = nextId++;
+			cache.put(root, new WeakReference<GenomeDescription>(root));
+		}
 	}
 	
 	public static boolean isSet() {
 		return (root != null);
 	}
 
+	/**
+	 * @return a number that identifies the description among those interned (the root, and
+	 *         those made by indels and recombination), or -1 for a description being built.
+	 */
+	public int getId() {
+		return id;
+	}
+
 	public int getGenomeLength() {
 		return genomeLength;
 	}
@@ -291,6 +412,24 @@ public final class GenomeDescription {
 		return features;
 	}
 
+	/**
+	 * @return the feature with the given id (see Feature.getId()), or null if the
+	 *         description does not have it, e.g. because it has been deleted.
+	 */
+	public Feature getFeature(int id) {
+		return (id >= 0 && id < featuresById.length ? featuresById[id] : null);
+	}
+
+	/**
+	 * @return one more than the largest feature id in the description.
+	 */
+	int getFeatureIdCount() {
+		return featuresById.length;
+	}
+
+	/**
+	 * Find a feature by name. Features are better found by id, with getFeature(int).
+	 */
 	public Feature getFeature(String name) {
 
 		for (Feature f : features) {
@@ -303,77 +442,63 @@ public final class GenomeDescription {
 	}
 
 	/**
-	 * For each feature, make two lookup tables (of type int[]):
-	 *
-	 * 'featureSiteTable' maps from genomic coordinates to feature-relative
-	 * coordinates.  That is, featureSiteTable[200] = 0 if the current feature begins
-	 * at genomic position 200.  'featureSiteTable' spans the entire genome and holds a
-	 * feature-relative position where the feature is defined, and -1 elsewhere.
-	 *
-	 * 'genomeSiteTable' maps from feature coordinates to
-	 * genome coordinates.  That is, genomeSiteTable[0] = 200 for the
-	 * feature that begins at genomic position 200. The length of
-	 * 'genomeSiteTable' is the number of nucleotides in the feature.
+	 * Index the features by their ids, for getFeature(int).
+	 */
+	private void indexFeatures() {
+		int count = 0;
+		for (Feature feature : features) {
+			count = Math.max(count, feature.getId() + 1);
+		}
+		featuresById = new Feature[count];
+		for (Feature feature : features) {
+			featuresById[feature.getId()] = feature;
+		}
+	}
+
+	/**
+	 * For each feature, make a SiteMap between its nucleotide sites and the genome
+	 * positions, stored in an array indexed by the feature id. That is,
+	 * getGenomePosition(0) = 200 and getFeatureSite(200) = 0 for a feature that begins
+	 * at genomic position 200.
 	 *
-	 * A 'featureSiteTable' and 'genomeSiteTable' pair are created for
-	 * each feature and are stored in HashMaps indexed by the feature
-	 * name.
+	 * The maps of the root description also hold dense tables, as it is shared by most
+	 * genomes; the maps of the descriptions made by indels only hold the fragments.
 	 */
-	private void computeSiteTables() {
-		this.featureSiteTables = new HashMap<String, int[]>();
-		this.genomeSiteTables = new HashMap<String, int[]>();
+	private synchronized void computeSiteMaps() {
+		if (siteMaps != null) {
+			// computed by another thread
+			return;
+		}
 
 		assert(features != null);
 		assert(features.size() >= 1);
 
+		// the maps are only published once complete, so they can be read without locking.
+		SiteMap[] siteMaps = new SiteMap[featuresById.length];
 		for (Feature feature : features) {
-			int[] featureSiteTable = new int[genomeLength];
-			int[] genomeSiteTable = new int[feature.getNucleotideLength()];
-
-			Arrays.fill(featureSiteTable, -1);
-			Arrays.fill(genomeSiteTable, -1);
-
-			int k = 0;
-			for (int i = 0; i < feature.getFragmentCount(); i++) {
-				int len = feature.getFragmentLength(i);
-				int j = feature.getFragmentStart(i);
-				while (len-- > 0) {
-					featureSiteTable[j] = k;
-					genomeSiteTable[k] = j;
-					k++; j++;
-				}
-			}
-			featureSiteTables.put(feature.getName(), featureSiteTable);
-			genomeSiteTables.put(feature.getName(), genomeSiteTable);
+			siteMaps[feature.getId()] = new SiteMap(feature, genomeLength, this == root);
 		}
+		this.siteMaps = siteMaps;
 	}
 
 	/**
-	 * returns an integer array that maps positions in the genome to positions in a feature.
-	 * The returned array will have a length equal to the number of positions in the genome.
-	 * Note: a genome may have zero length, in which case an empty array will be returned.
-	 * @param feature
-	 * @return integer array
+	 * @return the map between the sites of the feature and the positions in the genome,
+	 *         or null if the description does not have the feature.
 	 */
-	public int[] getFeatureSiteTable(Feature feature) {
-		if (featureSiteTables == null) {
-			computeSiteTables();
+	public SiteMap getSiteMap(Feature feature) {
+		if (siteMaps == null) {
+			computeSiteMaps();
 		}
-		return featureSiteTables.get(feature.getName());
+		int id = feature.getId();
+		return (id >= 0 && id < siteMaps.length ? siteMaps[id] : null);
 	}
 
 	/**
-	 * returns an integer array that maps positions in a feature to positions in the genome.
-	 * The returned array will have a length equal to the number of positions in the feature.
-	 * Note: a feature may have zero length, which case an empty array will be returned!
-	 * @param feature
-	 * @return integer array
+	 * @return true if some genome position occurs more than once in the feature, in
+	 *         which case the site map only gives the last of its feature positions.
 	 */
-	public int[] getGenomeSiteTable(Feature feature) {
-		if (genomeSiteTables == null) {
-			computeSiteTables();
-		}
-		return genomeSiteTables.get(feature.getName());
+	public boolean hasRepeatedSites(Feature feature) {
+		return getSiteMap(feature).hasRepeatedSites();
 	}
 
 
@@ -435,12 +560,21 @@ public final class GenomeDescription {
 	// in this lineage.
 	private List<Feature> features = null;
 
-	// These site maps are recomputed based on the feature coordinates inherited from the parent description.
-	private Map<String, int[]> genomeSiteTables = null;
-	private Map<String, int[]> featureSiteTables = null;
+	// The features, and the site maps (recomputed based on the feature coordinates inherited
+	// from the parent description), indexed by feature id.
+	private Feature[] featuresById = null;
+	private volatile SiteMap[] siteMaps = null;
 
 	private int genomeLength;
 
+	private int id = -1;
+	private int hash;
+	private boolean hashed = false;
+
+	// the descriptions reached from this one by an indel, keyed by the indel's position and length.
+	private Map<Long, WeakReference<GenomeDescription>> indelTransitions = null;
+	private static final int MAX_INDEL_TRANSITIONS = 64;
+
     private BinomialDistribution mutationDist = null;
 
 
@@ -449,5 +583,10 @@ public final class GenomeDescription {
 
 	private static List<RecombinationHotSpot> recombinationHotSpots = new ArrayList<RecombinationHotSpot>();
 	
-	private static Map<GenomeDescription, GenomeDescription> cache = new HashMap<GenomeDescription, GenomeDescription>();
+	// the descriptions made by indels and recombination, weakly held so that unused ones can be collected.
+	private static final Map<GenomeDescription, WeakReference<GenomeDescription>> cache =
+			new WeakHashMap<GenomeDescription, WeakReference<GenomeDescription>>();
+	private static long cacheHits = 0;
+	private static long cacheMisses = 0;
+	private static int nextId = 0;
 }
@@ -41,10 +41,10 @@ public class Indel extends Mutation {
 	 * Changes to fitness will be captured at a complete fitness recalculation.
 	 *
 	 * @param genome: the genome object which is changing.
-	 * @param featureSiteTable: map from genomic coordinates to feature coordinates.
+	 * @param siteMap: map between genomic coordinates and feature coordinates.
 	 */
 	@Override
-	public List<StateChange> getChanges(Genome genome, int[] featureSiteTable) {
+	public List<StateChange> getChanges(Genome genome, SiteMap siteMap) {
 		// probably time to revisit the idea that indels are just another kind of mutation like substitutions.
 		// They share very little infrastructure.
 
@@ -53,11 +53,12 @@ public class Mutation  implements Comparable<Mutation>  {
 	/**
 	 * create a list of nucleotides changed by this mutation.
 	 */
-	public List<StateChange> getChanges(Genome genome, int[] featureSiteTable) {
+	public List<StateChange> getChanges(Genome genome, SiteMap siteMap) {
 		List<StateChange> l = new ArrayList<StateChange>();
-		if (featureSiteTable[this.position] != -1) {
+		int site = siteMap.getFeatureSite(this.position);
+		if (site != -1) {
 			byte oldState = genome.getNucleotide(this.position);
-			StateChange c = new StateChange(featureSiteTable[this.position], oldState, this.state);
+			StateChange c = new StateChange(site, oldState, this.state);
 			l.add(c);
 		}
 		return (l);
@@ -20,6 +20,7 @@ public class SimpleGenePool extends BaseGenePool {
         SimpleGenome newGenome = recycleOrCreateGenome(sequence);
         newGenome.setFrequency(0);
         uniqueGenomeCount++;
+        genomeBorn(null, newGenome, null);
 
         return newGenome;
     }
@@ -59,25 +60,41 @@ public class SimpleGenePool extends BaseGenePool {
             fitnessFunction.updateLogFitness(newGenome);
 
             uniqueGenomeCount++;
+            genomeBorn(genome, newGenome, mutations);
 
             return newGenome;
         } else {
             genome.incrementFrequency();
+            touchGenome(genome);
             fitnessFunction.updateLogFitness(genome);
             return genome;
         }
     }
 
+    /**
+     * The recombinant's sequence is copied straight from the parents' sequences.
+     */
+    @Override
+    public Genome createRecombinantGenome(Genome[] parents, int[] breakPoints, int breakPointCount, GenomeDescription gd) {
+        SimpleGenome newGenome = recycleOrCreateGenome(null);
+        newGenome.recombine((SimpleGenome) parents[0], (SimpleGenome) parents[1], breakPoints, breakPointCount);
+        newGenome.setDescription(gd);
+        newGenome.setFrequency(0);
+        uniqueGenomeCount++;
+        recombinantBorn(parents, breakPoints, breakPointCount, newGenome);
+
+        return newGenome;
+    }
+
     /**
      * @return
      */
     private SimpleGenome recycleOrCreateGenome(Sequence s) {
         SimpleGenome newGenome;
-        if (unusedGenomes.size() > 0) {
-            newGenome = (SimpleGenome)unusedGenomes.removeFirst();
-        } else {
+        newGenome = (SimpleGenome)reuseGenome();
+        if (newGenome == null) {
             newGenome = new SimpleGenome();
-            genomes.add(newGenome);
+            addGenome(newGenome);
         }
 
         if (s != null) {
@@ -95,15 +112,12 @@ public class SimpleGenePool extends BaseGenePool {
         }
         if (frequency > 1) {
             genome.setFrequency(frequency - 1);
+            touchGenome(genome);
         } else {
             genome.setFrequency(0);
-            unusedGenomes.add((SimpleGenome)genome);
+            releaseGenome((SimpleGenome)genome);
             uniqueGenomeCount--;
         }
     }
 
-    public void finishGeneration(int generation) {
-        // nothing to do
-    }
-
 }
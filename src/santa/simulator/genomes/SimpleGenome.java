@@ -13,6 +13,8 @@ public class SimpleGenome extends BaseGenome {
 		this.sequence = new SimpleSequence(source.sequence);
 		this.fitnessCache = source.fitnessCache.clone();
 		this.descriptor = source.descriptor;
+		setTotalMutationCount(source.getTotalMutationCount());
+		inheritStates(source);
 		setLogFitness(source.getLogFitness());
 		assert(this.descriptor.getGenomeLength() == this.sequence.getLength());
 	}
@@ -27,8 +29,39 @@ public class SimpleGenome extends BaseGenome {
 		return sequence.getNucleotide(site);
 	}
 
+	public int getStates(SiteProjection projection, byte[] states) {
+		int count = projection.getSiteCount(descriptor);
+		if (!getCachedStates(projection, count, states)) {
+			int[] positions = projection.getPositions(descriptor);
+			SimpleSequence s = sequence;
+			if (projection.getFeature().getAlphabet() == SequenceAlphabet.AMINO_ACIDS) {
+				for (int i = 0, j = 0; i < count; i++, j += 3) {
+					states[i] = AminoAcid.translate(s.getNucleotide(positions[j]),
+							s.getNucleotide(positions[j + 1]),
+							s.getNucleotide(positions[j + 2]));
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					states[i] = s.getNucleotide(positions[i]);
+				}
+			}
+		}
+		return count;
+	}
+
 	public void setSequence(Sequence sequence) {
 		this.sequence = new SimpleSequence(sequence);
+		invalidateStates();
+	}
+
+	/**
+	 * Make this genome a recombinant of two parents (the shorter first), switching from
+	 * one to the other at each of the first breakPointCount breakPoints.
+	 */
+	void recombine(SimpleGenome first, SimpleGenome second, int[] breakPoints, int breakPointCount) {
+		this.sequence = SimpleSequence.getRecombinantSequence(first.sequence, second.sequence, breakPoints, breakPointCount);
+		setTotalMutationCount(0);
+		invalidateStates();
 	}
 
 	/**
@@ -92,8 +125,10 @@ public class SimpleGenome extends BaseGenome {
 
 		byte oldState = sequence.getNucleotide(position);
 		
-		if (state != oldState) 
+		if (state != oldState) {
 			sequence.setNucleotide(position, state);
+			updateStates(position);
+		}
 		return(state != oldState);
 	}
 
@@ -118,6 +153,7 @@ public class SimpleGenome extends BaseGenome {
 		int avail = Math.min(count, sequence.getLength()-position);
 		if (count != avail)
 			return false;
+		invalidateStates();
 		return sequence.deleteSubSequence(position, count);
 
   	}
@@ -132,6 +168,7 @@ public class SimpleGenome extends BaseGenome {
 	 * @return boolean indication of success
 	 **/
 	public boolean insert(int position, SimpleSequence seq) {
+		invalidateStates();
 		return sequence.insertSequence(position, seq);
 	}
 
@@ -181,9 +181,9 @@ public final class SimpleSequence implements Sequence {
 	public byte getAminoAcid(int i) {
 		int aa_i = i * 3;
 
-		return AminoAcid.STANDARD_GENETIC_CODE[getNucleotide(aa_i)]
-				[getNucleotide(aa_i + 1)]
-				[getNucleotide(aa_i + 2)];
+		return AminoAcid.translate(getNucleotide(aa_i),
+				getNucleotide(aa_i + 1),
+				getNucleotide(aa_i + 2));
 	}
 
 	/* (non-Javadoc)
@@ -267,7 +267,7 @@ public final class SimpleSequence implements Sequence {
 
 
 	public Sequence recombineWith(Sequence other, SortedSet<Integer> breakPoints) {
-		SimpleSequence[] parents = {this, (SimpleSequence) other};
+		SimpleSequence[] parents = {this, (other instanceof SimpleSequence ? (SimpleSequence) other : new SimpleSequence(other))};
 		return SimpleSequence.getRecombinantSequence(parents, breakPoints);
 	}
 	
@@ -310,22 +310,36 @@ public final class SimpleSequence implements Sequence {
 	 **/
     static SimpleSequence getRecombinantSequence(SimpleSequence[] parents, SortedSet<Integer> breakPoints) {
 	 	assert(parents.length == 2);
-		assert(parents[0].getLength() <= parents[1].getLength());
+
+		int[] points = new int[breakPoints.size()];
+		int k = 0;
+		for (int bp : breakPoints) {
+			points[k++] = bp;
+		}
+		return getRecombinantSequence(parents[0], parents[1], points, points.length);
+	}
+
+	/**
+	 * Create a recombined nucleotide sequence from two parents, as above, with the
+	 * breakpoints given by the first breakPointCount entries of breakPoints (in
+	 * increasing order). The nucleotides are copied straight from the parents' arrays.
+	 **/
+	static SimpleSequence getRecombinantSequence(SimpleSequence first, SimpleSequence second, int[] breakPoints, int breakPointCount) {
+		assert(first.getLength() <= second.getLength());
 
 		int lastBreakPoint = 0;		// previous recombination location
-		int currentSeq = 0;			// index of currently selected parent
-		int newlen = getRecombinantLength(parents, breakPoints);
+		int newlen = (breakPointCount % 2 == 0 ? first : second).getLength();
 		SimpleSequence product = new SimpleSequence(newlen);
 
 		byte[] dest = product.states;	// where to put the product
-		SimpleSequence seq = parents[currentSeq];
-		for (int nextBreakPoint : breakPoints) {
+		SimpleSequence seq = first;
+		for (int i = 0; i < breakPointCount; i++) {
+			int nextBreakPoint = breakPoints[i];
 			System.arraycopy(seq.states, lastBreakPoint, 
 							 dest, lastBreakPoint, nextBreakPoint-lastBreakPoint);
 			
 			lastBreakPoint = nextBreakPoint;
-			currentSeq = 1 - currentSeq;
-			seq = parents[currentSeq];
+			seq = (seq == first ? second : first);
 		}
 		int nextBreakPoint =  seq.getLength();
 		System.arraycopy(seq.states, lastBreakPoint, 
@@ -0,0 +1,174 @@
+package santa.simulator.genomes;
+
+/**
+ * Maps between the nucleotide sites of a feature and the positions in the genome, as
+ * laid out in a genome description.
+ *
+ * The mapping is held as the feature's fragments (their genome start, length and offset
+ * within the feature), so it takes space in proportion to the number of fragments rather
+ * than the length of the genome: a new description is made for almost every indel, and
+ * holding dense tables for each of them took feature-count times genome-length ints.
+ * A feature site is found by a search over the fragments' offsets, and a genome position
+ * by a search over their starts. The maps of the root description, which are used by
+ * nearly every genome, also keep the dense tables for constant time lookups.
+ */
+public final class SiteMap {
+
+	SiteMap(Feature feature, int genomeLength, boolean dense) {
+		int fragmentCount = feature.getFragmentCount();
+		starts = new int[fragmentCount];
+		offsets = new int[fragmentCount + 1];
+
+		boolean ordered = true;
+		for (int i = 0; i < fragmentCount; i++) {
+			starts[i] = feature.getFragmentStart(i);
+			offsets[i + 1] = offsets[i] + feature.getFragmentLength(i);
+			if (offsets[i + 1] == offsets[i] || (i > 0 && starts[i] < starts[i - 1] + (offsets[i] - offsets[i - 1]))) {
+				// empty, out of order, or overlapping the previous fragment
+				ordered = false;
+			}
+		}
+		this.siteCount = offsets[fragmentCount];
+		this.ordered = ordered;
+
+		boolean repeatedSites = false;
+		if (!ordered) {
+			boolean[] covered = new boolean[genomeLength];
+			for (int i = 0; i < fragmentCount && !repeatedSites; i++) {
+				for (int j = starts[i]; j < starts[i] + (offsets[i + 1] - offsets[i]); j++) {
+					if (covered[j]) {
+						// overlapping fragments, e.g. a ribosomal frameshift
+						repeatedSites = true;
+						break;
+					}
+					covered[j] = true;
+				}
+			}
+		}
+		this.repeatedSites = repeatedSites;
+
+		if (dense) {
+			genomePositions = new int[siteCount];
+			featureSites = new int[genomeLength];
+			java.util.Arrays.fill(featureSites, -1);
+			for (int i = 0; i < fragmentCount; i++) {
+				for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+					int j = starts[i] + k - offsets[i];
+					genomePositions[k] = j;
+					featureSites[j] = k;
+				}
+			}
+		} else {
+			genomePositions = null;
+			featureSites = null;
+		}
+	}
+
+	/**
+	 * @return the number of nucleotide sites in the feature.
+	 */
+	public int getSiteCount() {
+		return siteCount;
+	}
+
+	/**
+	 * @return the genome position of a nucleotide site of the feature.
+	 */
+	public int getGenomePosition(int site) {
+		if (genomePositions != null) {
+			return genomePositions[site];
+		}
+		if (site < 0 || site >= siteCount) {
+			throw new ArrayIndexOutOfBoundsException(site);
+		}
+		int i = (starts.length == 1 ? 0 : findFragment(offsets, starts.length, site));
+		return starts[i] + site - offsets[i];
+	}
+
+	/**
+	 * @return the nucleotide site of the feature at a genome position, or -1 if the
+	 *         position is not in the feature. If the position is in more than one
+	 *         fragment, the site in the last of them is given.
+	 */
+	public int getFeatureSite(int position) {
+		if (featureSites != null) {
+			return (position >= 0 && position < featureSites.length ? featureSites[position] : -1);
+		}
+		if (ordered) {
+			int i = findFragment(starts, starts.length, position);
+			return getFeatureSite(i, position);
+		}
+		for (int i = starts.length - 1; i >= 0; i--) {
+			int site = getFeatureSite(i, position);
+			if (site != -1) {
+				return site;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if some genome position occurs in more than one fragment of the feature.
+	 */
+	public boolean hasRepeatedSites() {
+		return repeatedSites;
+	}
+
+	/**
+	 * @return the site table as an array, indexed by feature site. This is the
+	 *         map's own array for the root description, and a new one otherwise.
+	 */
+	public int[] getGenomePositions() {
+		if (genomePositions != null) {
+			return genomePositions;
+		}
+		int[] positions = new int[siteCount];
+		for (int i = 0; i < starts.length; i++) {
+			for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+				positions[k] = starts[i] + k - offsets[i];
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * @return the site of the position in the i'th fragment, or -1 if it is not in it.
+	 */
+	private int getFeatureSite(int i, int position) {
+		if (i < 0 || position < starts[i] || position - starts[i] >= offsets[i + 1] - offsets[i]) {
+			return -1;
+		}
+		return offsets[i] + position - starts[i];
+	}
+
+	/**
+	 * @return the index of the last of the first count values that is no more than key, or -1.
+	 */
+	private static int findFragment(int[] values, int count, int key) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= key) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	private final int siteCount;
+
+	// the genome start of each fragment, and the feature site at which each starts
+	// (with the site count at the end).
+	private final int[] starts;
+	private final int[] offsets;
+	// whether the fragments are in increasing order and do not overlap.
+	private final boolean ordered;
+	private final boolean repeatedSites;
+
+	// the dense tables, for the root description only.
+	private final int[] genomePositions;
+	private final int[] featureSites;
+}
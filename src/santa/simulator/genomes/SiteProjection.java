@@ -0,0 +1,154 @@
+package santa.simulator.genomes;
+
+import java.util.Collection;
+
+/**
+ * A fixed list of sites of a feature (in the feature's own alphabet) whose states
+ * can be read from a genome with Genome.getStates(SiteProjection, byte[]) without
+ * building the states of the whole feature.
+ *
+ * The genome positions of the sites are resolved through the genome description's
+ * site tables and kept, so they are only recomputed when indels give a genome a new
+ * description. They are kept for several descriptions at once (by the description's id),
+ * so genomes with different descriptions can be read in turn without recomputing them.
+ */
+public final class SiteProjection {
+
+	public SiteProjection(Feature feature, int[] sites) {
+		this.feature = feature;
+		this.sites = sites.clone();
+	}
+
+	public SiteProjection(Feature feature, Collection<Integer> sites) {
+		this.feature = feature;
+		this.sites = new int[sites.size()];
+		int i = 0;
+		for (int site : sites) {
+			this.sites[i++] = site;
+		}
+	}
+
+	public Feature getFeature() {
+		return feature;
+	}
+
+	/**
+	 * @return the number of sites in the projection.
+	 */
+	public int getSiteCount() {
+		return sites.length;
+	}
+
+	/**
+	 * @return the i'th site of the projection, in feature coordinates.
+	 */
+	public int getSite(int i) {
+		return sites[i];
+	}
+
+	/**
+	 * The number of sites that can be read from genomes with the given description. If
+	 * indels have shrunk the feature this is the number of sites before the first one
+	 * that falls off its end.
+	 */
+	int getSiteCount(GenomeDescription description) {
+		return compile(description).count;
+	}
+
+	/**
+	 * @return the genome positions of the nucleotides of each readable site, in order
+	 *         (three per site for amino acid features).
+	 */
+	int[] getPositions(GenomeDescription description) {
+		return compile(description).positions;
+	}
+
+	/**
+	 * @return the genome positions in increasing order, and the index into getPositions() of each.
+	 */
+	int[] getSortedPositions(GenomeDescription description) {
+		return compile(description).sortedPositions;
+	}
+
+	int[] getSortedSlots(GenomeDescription description) {
+		return compile(description).sortedSlots;
+	}
+
+	/**
+	 * @return the id of the feature, or -1 if the description does not have it.
+	 */
+	int getFeatureId(GenomeDescription description) {
+		return compile(description).featureId;
+	}
+
+	private Compiled compile(GenomeDescription description) {
+		int slot = description.getId() & (CACHE_SIZE - 1);
+		Compiled c = compiled[slot];
+		if (c == null || c.description != description) {
+			c = new Compiled(description);
+			compiled[slot] = c;
+		}
+		return c;
+	}
+
+	/**
+	 * The sites resolved against one description. Immutable, so it can be shared
+	 * between threads through the (unsynchronized) compiled array.
+	 */
+	private final class Compiled {
+		Compiled(GenomeDescription description) {
+			this.description = description;
+
+			int tokenSize = feature.getAlphabet().getTokenSize();
+			SiteMap siteMap = description.getSiteMap(feature);
+			int length = (siteMap == null ? 0 : siteMap.getSiteCount() / tokenSize);
+
+			int n = 0;
+			while (n < sites.length && sites[n] >= 0 && sites[n] < length) {
+				n++;
+			}
+
+			positions = new int[n * tokenSize];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < tokenSize; j++) {
+					positions[i * tokenSize + j] = siteMap.getGenomePosition(sites[i] * tokenSize + j);
+				}
+			}
+
+			// sort the slots by position (insertion sort: projections are short and usually in order).
+			sortedSlots = new int[positions.length];
+			for (int i = 0; i < sortedSlots.length; i++) {
+				int slot = i;
+				int k = i;
+				while (k > 0 && positions[sortedSlots[k - 1]] > positions[slot]) {
+					sortedSlots[k] = sortedSlots[k - 1];
+					k--;
+				}
+				sortedSlots[k] = slot;
+			}
+			sortedPositions = new int[positions.length];
+			for (int i = 0; i < sortedSlots.length; i++) {
+				sortedPositions[i] = positions[sortedSlots[i]];
+			}
+
+			this.count = n;
+			this.featureId = (siteMap == null ? -1 : feature.getId());
+		}
+
+		final GenomeDescription description;
+		final int count;
+		final int featureId;
+		final int[] positions;
+		final int[] sortedPositions;
+		final int[] sortedSlots;
+	}
+
+	private final Feature feature;
+	private final int[] sites;
+
+	// the number of descriptions whose positions are kept (a power of two). The ids of the
+	// descriptions are consecutive, so those of recent indels do not displace each other.
+	private static final int CACHE_SIZE = 16;
+
+	private final Compiled[] compiled = new Compiled[CACHE_SIZE];
+}
@@ -0,0 +1,231 @@
+package santa.simulator.genomes;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * The frequency of each nucleotide at each site of the genomes in a gene pool, kept up to
+ * date from the pool's events rather than by walking every genome's sequence.
+ *
+ * Each genome is held as the list of sites at which it differs from a reference sequence
+ * (the first genome created), which is built from its parent's list and the mutations
+ * when it is born (or from the segments of its parents' lists, for a recombinant). A change in a genome's frequency is then added to the reference states
+ * (as a single total) and to the states at the genome's own sites, so it costs as much as
+ * the genome's divergence from the reference rather than the length of the genome.
+ *
+ * This only works while all the genomes have the same length: once a genome is born with
+ * another description (after an indel) the matrix is no longer valid, and stays so until
+ * the pool is initialized again.
+ */
+final class StateFrequencyMatrix implements GenePoolListener {
+
+	StateFrequencyMatrix(int genomeLength) {
+		this.genomeLength = genomeLength;
+		this.differenceFrequencies = new int[genomeLength * STATE_COUNT];
+		genePoolInitialized();
+	}
+
+	/**
+	 * Start again from the genomes in the pool, as if they had just been created.
+	 */
+	void rebuild(List<Genome> genomes) {
+		genePoolInitialized();
+		for (Genome genome : genomes) {
+			genomeCreated(genome);
+			frequencyChanged(genome, 0, genome.getFrequency());
+		}
+	}
+
+	/**
+	 * @return true if the frequencies are known, i.e. all the genomes share the reference's description.
+	 */
+	boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Fill in the frequency of each state at each site.
+	 */
+	void getStateFrequencies(int[][] frequencies) {
+		for (int i = 0; i < genomeLength; i++) {
+			getStateFrequencies(i, frequencies[i]);
+		}
+	}
+
+	/**
+	 * Fill in the frequency of each state at a site.
+	 */
+	void getStateFrequencies(int position, int[] frequencies) {
+		int offset = position * STATE_COUNT;
+		for (int s = 0; s < STATE_COUNT; s++) {
+			frequencies[s] = differenceFrequencies[offset + s];
+		}
+		if (reference != null) {
+			frequencies[reference[position]] += totalFrequency;
+		}
+	}
+
+	public void genomeCreated(Genome genome) {
+		if (!valid || !checkDescription(genome)) {
+			return;
+		}
+		if (reference == null) {
+			reference = new byte[genomeLength];
+			for (int i = 0; i < genomeLength; i++) {
+				reference[i] = genome.getNucleotide(i);
+			}
+		}
+
+		int[] sites = new int[8];
+		int count = 0;
+		for (int i = 0; i < genomeLength; i++) {
+			if (genome.getNucleotide(i) != reference[i]) {
+				if (count == sites.length) {
+					sites = Arrays.copyOf(sites, count * 2);
+				}
+				sites[count++] = i;
+			}
+		}
+		setDifferences(genome, Arrays.copyOf(sites, count));
+	}
+
+	public void genomeDuplicated(Genome parent, Genome genome, SortedSet<Mutation> mutations) {
+		if (!valid || !checkDescription(genome)) {
+			return;
+		}
+		int[] parentSites = getDifferences(parent);
+		setDifferences(genome, parentSites, parentSites.length, mutations);
+	}
+
+	public void genomeRecombined(Genome first, Genome second, int[] breakPoints, Genome genome, SortedSet<Mutation> mutations) {
+		if (!valid || !checkDescription(genome)) {
+			return;
+		}
+
+		// the parents' sites within each segment, which is found by a binary search of their lists.
+		int[] firstSites = getDifferences(first);
+		int[] secondSites = getDifferences(second);
+		int[] sites = new int[firstSites.length + secondSites.length];
+		int count = 0;
+		int lastBreakPoint = 0;
+		int[] parentSites = firstSites;
+		for (int i = 0; i <= breakPoints.length; i++) {
+			int nextBreakPoint = (i < breakPoints.length ? breakPoints[i] : genomeLength);
+			if (nextBreakPoint > lastBreakPoint) {
+				int j = Arrays.binarySearch(parentSites, lastBreakPoint);
+				if (j < 0) {
+					j = -j - 1;
+				}
+				while (j < parentSites.length && parentSites[j] < nextBreakPoint) {
+					sites[count++] = parentSites[j++];
+				}
+			}
+			lastBreakPoint = nextBreakPoint;
+			parentSites = (parentSites == firstSites ? secondSites : firstSites);
+		}
+		setDifferences(genome, sites, count, mutations);
+	}
+
+	public void frequencyChanged(Genome genome, int oldFrequency, int newFrequency) {
+		if (!valid) {
+			return;
+		}
+		int delta = newFrequency - oldFrequency;
+		totalFrequency += delta;
+		for (int position : getDifferences(genome)) {
+			int offset = position * STATE_COUNT;
+			differenceFrequencies[offset + genome.getNucleotide(position)] += delta;
+			differenceFrequencies[offset + reference[position]] -= delta;
+		}
+	}
+
+	public void genomeKilled(Genome genome) {
+		if (valid) {
+			differences[((BaseGenome) genome).poolSlot] = null;
+		}
+	}
+
+	public void generationFinished(int generation) {
+	}
+
+	public void genePoolInitialized() {
+		valid = true;
+		reference = null;
+		totalFrequency = 0;
+		Arrays.fill(differenceFrequencies, 0);
+		Arrays.fill(differences, null);
+	}
+
+	private boolean checkDescription(Genome genome) {
+		if (genome.getLength() != genomeLength || genome.getDescription() != GenomeDescription.root) {
+			valid = false;
+		}
+		return valid;
+	}
+
+	private int[] getDifferences(Genome genome) {
+		return differences[((BaseGenome) genome).poolSlot];
+	}
+
+	/**
+	 * Set the sites of a genome from those it has inherited (the first count of sites) and
+	 * the mutations (or null) applied to it.
+	 */
+	private void setDifferences(Genome genome, int[] sites, int count, SortedSet<Mutation> mutations) {
+		// the mutated sites, in increasing order (mutations are sorted by decreasing position).
+		int[] mutated = new int[mutations != null ? mutations.size() : 0];
+		if (mutations != null) {
+			int n = mutated.length;
+			for (Mutation mutation : mutations) {
+				if (mutation instanceof Indel) {
+					valid = false;
+					return;
+				}
+				mutated[--n] = mutation.position;
+			}
+		}
+
+		// merge the inherited sites with the mutated ones, which are kept if they differ from the reference.
+		int[] merged = new int[count + mutated.length];
+		int mergedCount = 0;
+		int i = 0;
+		int j = 0;
+		while (i < count || j < mutated.length) {
+			if (j == mutated.length || (i < count && sites[i] < mutated[j])) {
+				merged[mergedCount++] = sites[i++];
+			} else {
+				int position = mutated[j++];
+				if (i < count && sites[i] == position) {
+					i++;
+				}
+				if (genome.getNucleotide(position) != reference[position]) {
+					merged[mergedCount++] = position;
+				}
+			}
+		}
+		setDifferences(genome, Arrays.copyOf(merged, mergedCount));
+	}
+
+	private void setDifferences(Genome genome, int[] sites) {
+		int slot = ((BaseGenome) genome).poolSlot;
+		if (slot >= differences.length) {
+			differences = Arrays.copyOf(differences, Math.max(slot + 1, differences.length * 2));
+		}
+		differences[slot] = sites;
+	}
+
+	private static final int STATE_COUNT = 4;
+
+	private final int genomeLength;
+	private boolean valid;
+	private byte[] reference;
+
+	// the total frequency of the genomes, and the frequencies (flattened by site and state)
+	// by which the states differ from those of the reference counted with that frequency.
+	private int totalFrequency;
+	private final int[] differenceFrequencies;
+
+	// the sites at which each genome (by its slot in the pool) differs from the reference, in increasing order.
+	private int[][] differences = new int[16][];
+}
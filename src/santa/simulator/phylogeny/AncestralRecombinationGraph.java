@@ -0,0 +1,519 @@
+package santa.simulator.phylogeny;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.SimpleRootedTree;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * The ancestral recombination graph of the population, recorded as tables of nodes and
+ * edges in the style of a tree sequence.
+ *
+ * Each genome that is born is a node (with the generation in which it was born), and it
+ * inherits each interval of the genome [left, right) from one of its parents through an
+ * edge. A clonal child has a single edge covering the whole genome; a recombinant has an
+ * edge for each interval between its breakpoints, alternating between its parents. The
+ * local genealogy of any interval can then be read from the edges that cover it.
+ *
+ * The tables grow by a node and at least one edge per child, so every simplifyInterval
+ * generations they are simplified: only the extant nodes, the nodes that have been marked
+ * as samples, and the nodes at which some interval of their ancestry coalesces are kept,
+ * with the edges between them. This is the simplify algorithm of Kelleher et al. (2018)
+ * Efficient pedigree recording for fast population genetics simulation.
+ *
+ * Coordinates are positions in the root genome; with indels the positions in each genome
+ * are used as they are, and breakpoints beyond the root's length are ignored.
+ */
+public class AncestralRecombinationGraph {
+
+	/**
+	 * @param genomeLength the length of the genome, which the edges' intervals cover.
+	 * @param simplifyInterval the number of generations between simplifications, or 0 to never simplify.
+	 */
+	public AncestralRecombinationGraph(int genomeLength, int simplifyInterval) {
+		this.genomeLength = genomeLength;
+		this.simplifyInterval = simplifyInterval;
+	}
+
+	/**
+	 * Start a new graph with a single root node, from which the initial population of the
+	 * given size descends.
+	 */
+	public void initialize(int populationSize) {
+		tables = new Tables();
+		sampleCount = 0;
+		int root = tables.addNode(0, -1);
+
+		extantNodes = new int[Math.max(populationSize, 1)];
+		Arrays.fill(extantNodes, 0, populationSize, root);
+		extantCount = populationSize;
+		newExtantNodes = new int[extantNodes.length];
+		newExtantCount = 0;
+	}
+
+	/**
+	 * Add the next child of the generation.
+	 *
+	 * @param firstParent the index of the parent in the previous generation from which the
+	 *                    child inherits the start of its genome.
+	 * @param secondParent the index of the other parent of a recombinant, or -1.
+	 * @param breakPoints the positions at which the child switches from one parent to the other,
+	 *                    in increasing order (the first breakPointCount are used).
+	 */
+	public void addChild(int generation, int firstParent, int secondParent, int[] breakPoints, int breakPointCount) {
+		int child = tables.addNode(generation, -1);
+		int parent = extantNodes[firstParent];
+		int other = (secondParent != -1 ? extantNodes[secondParent] : parent);
+
+		int left = 0;
+		for (int i = 0; i < breakPointCount && left < genomeLength; i++) {
+			int right = Math.min(breakPoints[i], genomeLength);
+			if (right > left) {
+				tables.addEdge(left, right, parent, child);
+				left = right;
+			}
+			int tmp = parent;
+			parent = other;
+			other = tmp;
+		}
+		if (left < genomeLength) {
+			tables.addEdge(left, genomeLength, parent, child);
+		}
+
+		if (newExtantCount == newExtantNodes.length) {
+			newExtantNodes = Arrays.copyOf(newExtantNodes, newExtantCount * 2);
+		}
+		newExtantNodes[newExtantCount++] = child;
+	}
+
+	/**
+	 * The children of the generation have all been added, and become the extant nodes.
+	 * The tables are simplified if the generation is a multiple of the interval.
+	 */
+	public void finishGeneration(int generation) {
+		int[] tmp = extantNodes;
+		extantNodes = newExtantNodes;
+		extantCount = newExtantCount;
+		newExtantNodes = (tmp.length >= extantNodes.length ? tmp : new int[extantNodes.length]);
+		newExtantCount = 0;
+
+		if (simplifyInterval > 0 && generation % simplifyInterval == 0) {
+			simplify();
+		}
+	}
+
+	/**
+	 * Mark extant genomes as samples, so that they are kept when the tables are simplified.
+	 *
+	 * @param sample the indices of the genomes in the current generation
+	 * @return the sample ids of the genomes (numbered from 0 in the order they were marked).
+	 */
+	public int[] addSamples(int[] sample) {
+		int[] ids = new int[sample.length];
+		for (int i = 0; i < sample.length; i++) {
+			int node = extantNodes[sample[i]];
+			if (tables.nodeSample[node] == -1) {
+				tables.nodeSample[node] = sampleCount++;
+			}
+			ids[i] = tables.nodeSample[node];
+		}
+		return ids;
+	}
+
+	/**
+	 * Simplify the tables to the extant and sample nodes.
+	 */
+	public void simplify() {
+		int[] keep = new int[extantCount + sampleCount];
+		int n = 0;
+		for (int i = 0; i < extantCount; i++) {
+			keep[n++] = extantNodes[i];
+		}
+		for (int node = 0; node < tables.nodeCount; node++) {
+			if (tables.nodeSample[node] != -1) {
+				keep[n++] = node;
+			}
+		}
+
+		int[] map = new int[tables.nodeCount];
+		tables = simplify(tables, Arrays.copyOf(keep, n), map);
+		for (int i = 0; i < extantCount; i++) {
+			extantNodes[i] = map[extantNodes[i]];
+		}
+	}
+
+	/**
+	 * @return the number of nodes in the tables.
+	 */
+	public int getNodeCount() {
+		return tables.nodeCount;
+	}
+
+	/**
+	 * @return the number of edges in the tables.
+	 */
+	public int getEdgeCount() {
+		return tables.edgeCount;
+	}
+
+	/**
+	 * Write the tables, simplified to the extant and sample nodes: a line for each node
+	 * (its id, generation and sample label, if it is a sample) and then for each edge (its
+	 * interval, parent and child).
+	 *
+	 * @param labels the labels of the samples, by sample id.
+	 */
+	public void writeTables(PrintWriter writer, List<String> labels) {
+		simplify();
+
+		writer.println("node\tgeneration\tsample");
+		for (int node = 0; node < tables.nodeCount; node++) {
+			int sample = tables.nodeSample[node];
+			writer.println(node + "\t" + tables.nodeGeneration[node] + "\t" +
+					(sample != -1 && sample < labels.size() ? labels.get(sample) : ""));
+		}
+		writer.println();
+		writer.println("left\tright\tparent\tchild");
+		for (int e = 0; e < tables.edgeCount; e++) {
+			writer.println(tables.edgeLeft[e] + "\t" + tables.edgeRight[e] + "\t" +
+					tables.edgeParent[e] + "\t" + tables.edgeChild[e]);
+		}
+	}
+
+	/**
+	 * Reconstruct the local trees of a sample of the current generation: one for each
+	 * interval of the genome over which the sample's genealogy does not change.
+	 *
+	 * @param sample the indices of the genomes in the current generation
+	 * @param taxa the taxa to label them with
+	 * @return the trees, in order along the genome, or null if the sample's ancestry has
+	 *         not fully coalesced.
+	 */
+	public List<LocalTree> reconstructLocalTrees(int[] sample, List<Taxon> taxa) {
+		int[] sampleNodes = new int[sample.length];
+		for (int i = 0; i < sample.length; i++) {
+			sampleNodes[i] = extantNodes[sample[i]];
+		}
+		Tables t = simplify(tables, sampleNodes, new int[tables.nodeCount]);
+
+		// the genome is divided at every end of an edge.
+		SortedSet<Integer> positions = new TreeSet<Integer>();
+		positions.add(0);
+		positions.add(genomeLength);
+		for (int e = 0; e < t.edgeCount; e++) {
+			positions.add(t.edgeLeft[e]);
+			positions.add(t.edgeRight[e]);
+		}
+
+		// the nodes from the youngest to the oldest, so children come before their parents.
+		Integer[] order = new Integer[t.nodeCount];
+		for (int node = 0; node < t.nodeCount; node++) {
+			order[node] = node;
+		}
+		final int[] nodeGeneration = t.nodeGeneration;
+		Arrays.sort(order, (n1, n2) -> nodeGeneration[n2] - nodeGeneration[n1]);
+		int tipGeneration = (sampleNodes.length > 0 ? tables.nodeGeneration[sampleNodes[0]] : 0);
+
+		List<LocalTree> trees = new ArrayList<LocalTree>();
+		List<List<Node>> children = new ArrayList<List<Node>>();
+		for (int node = 0; node < t.nodeCount; node++) {
+			children.add(new ArrayList<Node>());
+		}
+		int[] parents = new int[t.nodeCount];
+		Node[] nodes = new Node[t.nodeCount];
+
+		Integer left = null;
+		for (int right : positions) {
+			if (left == null) {
+				left = right;
+				continue;
+			}
+
+			Arrays.fill(parents, -1);
+			for (int e = 0; e < t.edgeCount; e++) {
+				if (t.edgeLeft[e] <= left && t.edgeRight[e] >= right) {
+					parents[t.edgeChild[e]] = t.edgeParent[e];
+				}
+			}
+
+			SimpleRootedTree tree = new SimpleRootedTree();
+			int rootCount = 0;
+			for (int node : order) {
+				List<Node> c = children.get(node);
+				if (node < sample.length) {
+					nodes[node] = tree.createExternalNode(taxa.get(node));
+					tree.setHeight(nodes[node], tipGeneration - t.nodeGeneration[node]);
+				} else if (c.size() > 1) {
+					nodes[node] = tree.createInternalNode(c);
+					tree.setHeight(nodes[node], tipGeneration - t.nodeGeneration[node]);
+				} else {
+					// not a coalescence in this interval: pass the child (if any) straight up.
+					nodes[node] = (c.size() == 1 ? c.get(0) : null);
+				}
+				c.clear();
+
+				if (nodes[node] != null) {
+					if (parents[node] != -1) {
+						children.get(parents[node]).add(nodes[node]);
+					} else {
+						rootCount++;
+					}
+				}
+			}
+			if (rootCount != 1) {
+				// the sample has not fully coalesced.
+				return null;
+			}
+			trees.add(new LocalTree(left, right, tree));
+			left = right;
+		}
+		return trees;
+	}
+
+	/**
+	 * The genealogy of an interval [left, right) of the genome.
+	 */
+	public static final class LocalTree {
+		LocalTree(int left, int right, RootedTree tree) {
+			this.left = left;
+			this.right = right;
+			this.tree = tree;
+		}
+
+		public int getLeft() {
+			return left;
+		}
+
+		public int getRight() {
+			return right;
+		}
+
+		public RootedTree getTree() {
+			return tree;
+		}
+
+		private final int left;
+		private final int right;
+		private final RootedTree tree;
+	}
+
+	/**
+	 * Simplify the tables to the given sample nodes, which become the first nodes of the
+	 * result (in the order given), followed by the nodes at which the ancestry of some
+	 * interval of the samples coalesces, from the youngest to the oldest.
+	 *
+	 * The edges are visited from the youngest parent to the oldest, carrying the ancestry
+	 * of each node: the intervals of the genome it passes on to the samples, and the
+	 * node of the result through which it does so. Where the intervals inherited from two
+	 * or more children of a parent overlap, the parent is a coalescence, and is kept.
+	 *
+	 * @param map filled in with the node of the result for each node of the input, or -1.
+	 */
+	Tables simplify(Tables input, int[] samples, int[] map) {
+		Tables output = new Tables();
+		Arrays.fill(map, 0, input.nodeCount, -1);
+
+		List<List<Segment>> ancestry = new ArrayList<List<Segment>>(input.nodeCount);
+		for (int node = 0; node < input.nodeCount; node++) {
+			ancestry.add(null);
+		}
+		for (int node : samples) {
+			if (map[node] == -1) {
+				map[node] = output.addNode(input.nodeGeneration[node], input.nodeSample[node]);
+				List<Segment> a = new ArrayList<Segment>();
+				a.add(new Segment(0, genomeLength, map[node]));
+				ancestry.set(node, a);
+			}
+		}
+
+		// the edges grouped by parent, from the youngest parent to the oldest.
+		Integer[] edges = new Integer[input.edgeCount];
+		for (int e = 0; e < edges.length; e++) {
+			edges[e] = e;
+		}
+		final Tables in = input;
+		Arrays.sort(edges, (e1, e2) -> {
+			int p1 = in.edgeParent[e1];
+			int p2 = in.edgeParent[e2];
+			if (in.nodeGeneration[p1] != in.nodeGeneration[p2]) {
+				return in.nodeGeneration[p2] - in.nodeGeneration[p1];
+			}
+			return (p1 != p2 ? p1 - p2 : in.edgeLeft[e1] - in.edgeLeft[e2]);
+		});
+
+		PriorityQueue<Segment> queue = new PriorityQueue<Segment>(16, (s1, s2) -> s1.left - s2.left);
+		List<Segment> overlapping = new ArrayList<Segment>();
+		List<int[]> parentEdges = new ArrayList<int[]>();
+		int k = 0;
+		while (k < edges.length) {
+			int parent = input.edgeParent[edges[k]];
+
+			// the ancestry the parent's children pass on through its edges
+			queue.clear();
+			while (k < edges.length && input.edgeParent[edges[k]] == parent) {
+				int e = edges[k++];
+				List<Segment> a = ancestry.get(input.edgeChild[e]);
+				if (a != null) {
+					for (Segment x : a) {
+						if (x.right > input.edgeLeft[e] && input.edgeRight[e] > x.left) {
+							queue.add(new Segment(Math.max(x.left, input.edgeLeft[e]), Math.min(x.right, input.edgeRight[e]), x.node));
+						}
+					}
+				}
+			}
+			if (queue.isEmpty()) {
+				continue;
+			}
+
+			boolean isSample = (map[parent] != -1);
+			int v = map[parent];
+			List<Segment> a = (isSample ? ancestry.get(parent) : new ArrayList<Segment>());
+			parentEdges.clear();
+			while (!queue.isEmpty()) {
+				int left = queue.peek().left;
+				int right = genomeLength;
+				overlapping.clear();
+				while (!queue.isEmpty() && queue.peek().left == left) {
+					Segment x = queue.poll();
+					overlapping.add(x);
+					right = Math.min(right, x.right);
+				}
+				if (!queue.isEmpty()) {
+					right = Math.min(right, queue.peek().left);
+				}
+
+				if (overlapping.size() == 1 && !isSample) {
+					// a single lineage passes through the parent
+					Segment x = overlapping.get(0);
+					Segment alpha = x;
+					if (!queue.isEmpty() && queue.peek().left < x.right) {
+						alpha = new Segment(x.left, queue.peek().left, x.node);
+						x.left = queue.peek().left;
+						queue.add(x);
+					}
+					addSegment(a, alpha.left, alpha.right, alpha.node);
+				} else {
+					// the lineages coalesce in the parent
+					if (v == -1) {
+						v = output.addNode(input.nodeGeneration[parent], input.nodeSample[parent]);
+						map[parent] = v;
+					}
+					for (Segment x : overlapping) {
+						parentEdges.add(new int[] { left, right, x.node });
+						if (x.right > right) {
+							x.left = right;
+							queue.add(x);
+						}
+					}
+					if (!isSample) {
+						addSegment(a, left, right, v);
+					}
+				}
+			}
+			ancestry.set(parent, a);
+
+			// squash the parent's edges to each child into as few as possible
+			parentEdges.sort((x, y) -> (x[2] != y[2] ? x[2] - y[2] : x[0] - y[0]));
+			int[] last = null;
+			for (int[] edge : parentEdges) {
+				if (last != null && last[2] == edge[2] && last[1] == edge[0]) {
+					last[1] = edge[1];
+				} else {
+					if (last != null) {
+						output.addEdge(last[0], last[1], v, last[2]);
+					}
+					last = edge;
+				}
+			}
+			if (last != null) {
+				output.addEdge(last[0], last[1], v, last[2]);
+			}
+		}
+
+		return output;
+	}
+
+	private static void addSegment(List<Segment> segments, int left, int right, int node) {
+		if (!segments.isEmpty()) {
+			Segment last = segments.get(segments.size() - 1);
+			if (last.right == left && last.node == node) {
+				last.right = right;
+				return;
+			}
+		}
+		segments.add(new Segment(left, right, node));
+	}
+
+	/**
+	 * An interval of the genome, and the node of the simplified tables it is inherited through.
+	 */
+	private static final class Segment {
+		Segment(int left, int right, int node) {
+			this.left = left;
+			this.right = right;
+			this.node = node;
+		}
+
+		int left;
+		int right;
+		final int node;
+	}
+
+	/**
+	 * The node and edge tables, as parallel arrays.
+	 */
+	static final class Tables {
+		int addNode(int generation, int sample) {
+			if (nodeCount == nodeGeneration.length) {
+				int capacity = Math.max(16, nodeCount * 2);
+				nodeGeneration = Arrays.copyOf(nodeGeneration, capacity);
+				nodeSample = Arrays.copyOf(nodeSample, capacity);
+			}
+			nodeGeneration[nodeCount] = generation;
+			nodeSample[nodeCount] = sample;
+			return nodeCount++;
+		}
+
+		void addEdge(int left, int right, int parent, int child) {
+			if (edgeCount == edgeLeft.length) {
+				int capacity = Math.max(16, edgeCount * 2);
+				edgeLeft = Arrays.copyOf(edgeLeft, capacity);
+				edgeRight = Arrays.copyOf(edgeRight, capacity);
+				edgeParent = Arrays.copyOf(edgeParent, capacity);
+				edgeChild = Arrays.copyOf(edgeChild, capacity);
+			}
+			edgeLeft[edgeCount] = left;
+			edgeRight[edgeCount] = right;
+			edgeParent[edgeCount] = parent;
+			edgeChild[edgeCount] = child;
+			edgeCount++;
+		}
+
+		// the generation in which each node was born, and its sample id (or -1).
+		int nodeCount = 0;
+		int[] nodeGeneration = new int[0];
+		int[] nodeSample = new int[0];
+
+		// each edge passes the interval [left, right) of the genome from parent to child.
+		int edgeCount = 0;
+		int[] edgeLeft = new int[0];
+		int[] edgeRight = new int[0];
+		int[] edgeParent = new int[0];
+		int[] edgeChild = new int[0];
+	}
+
+	private final int genomeLength;
+	private final int simplifyInterval;
+
+	private Tables tables = new Tables();
+	private int sampleCount = 0;
+
+	// the nodes of the current generation, by their index in it, and those of the next.
+	private int[] extantNodes = new int[0];
+	private int extantCount = 0;
+	private int[] newExtantNodes = new int[0];
+	private int newExtantCount = 0;
+}
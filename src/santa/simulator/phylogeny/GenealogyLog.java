@@ -0,0 +1,216 @@
+package santa.simulator.phylogeny;
+
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.GenePoolListener;
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.Mutation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * The complete genealogy of a run, written to disk as it happens.
+ *
+ * Every virus that is born is appended to the log as a record of its id, the id of its
+ * parent, the generation in which it was born and the id of its genome. The ids of the
+ * viruses are numbered from 1 in the order they are written, so the record of any virus
+ * can be found from its id, and the initial population are the children of the root, 0.
+ * A genome's id is the same for all the viruses that share it, and is not reused when the
+ * genome dies.
+ *
+ * The records are written to a memory mapped file, which is rolled over to a new segment
+ * (fileName.0, fileName.1, ...) every segmentSize records, so the heap used does not grow
+ * with the length of the run, only with the size of the population. The last segment is
+ * cut to the records written when the log is closed (where the platform allows it; the
+ * reader stops at the first empty record otherwise). GenealogyReader reconstructs trees
+ * from the log.
+ */
+public class GenealogyLog implements GenePoolListener {
+
+	// a record is the virus's id, its parent's id, its generation and its genome's id.
+	static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+	// a segment is mapped as a single buffer, so must be less than 2GB.
+	public static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE / RECORD_SIZE;
+
+	/**
+	 * @param segmentSize the number of records in each segment of the file.
+	 */
+	public GenealogyLog(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Start a new log, replacing any that was written with the same name.
+	 */
+	public void open(String fileName) {
+		this.fileName = fileName;
+		for (int segment = 0; getSegmentFile(fileName, segment).exists(); segment++) {
+			getSegmentFile(fileName, segment).delete();
+		}
+		recordCount = 0;
+		segmentCount = 0;
+		nextGenomeId = 1;
+		buffer = null;
+	}
+
+	/**
+	 * Start the genealogy of a new population, whose viruses are added with addChild(), as
+	 * children of the root, followed by finishGeneration().
+	 */
+	public void initialize(GenePool genePool) {
+		if (this.genePool != genePool) {
+			if (this.genePool != null) {
+				this.genePool.removeGenePoolListener(this);
+			}
+			genePool.addGenePoolListener(this);
+			this.genePool = genePool;
+		}
+		genomeIds.clear();
+		newExtantCount = 0;
+	}
+
+	/**
+	 * Append the next child of the generation.
+	 *
+	 * @param parent the index of the child's parent in the last generation, or -1 for the root.
+	 */
+	public void addChild(int generation, int parent, Genome genome) {
+		if (buffer == null || !buffer.hasRemaining()) {
+			nextSegment();
+		}
+
+		Integer genomeId = genomeIds.get(genome);
+		if (genomeId == null) {
+			genomeId = nextGenomeId++;
+			genomeIds.put(genome, genomeId);
+		}
+
+		long id = ++recordCount;
+		buffer.putLong(id);
+		buffer.putLong(parent != -1 ? extantIds[parent] : 0);
+		buffer.putInt(generation);
+		buffer.putInt(genomeId);
+
+		if (newExtantCount == newExtantIds.length) {
+			newExtantIds = Arrays.copyOf(newExtantIds, Math.max(16, newExtantCount * 2));
+		}
+		newExtantIds[newExtantCount++] = id;
+	}
+
+	/**
+	 * The children of the generation have all been added, and become the parents of the next.
+	 */
+	public void finishGeneration() {
+		long[] tmp = extantIds;
+		extantIds = newExtantIds;
+		newExtantIds = tmp;
+		newExtantCount = 0;
+	}
+
+	/**
+	 * @return the number of records written.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Write the records so far through to the file.
+	 */
+	public void flush() {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+	public void close() {
+		if (buffer == null) {
+			return;
+		}
+		buffer.force();
+		int length = buffer.position();
+		buffer = null;
+
+		try {
+			RandomAccessFile file = new RandomAccessFile(getSegmentFile(fileName, segmentCount - 1), "rw");
+			try {
+				file.getChannel().truncate(length);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			// the segment is still mapped (e.g., on Windows), so it is left at its full size.
+		}
+	}
+
+	private void nextSegment() {
+		if (buffer != null) {
+			buffer.force();
+		}
+		File file = getSegmentFile(fileName, segmentCount);
+		try {
+			RandomAccessFile segment = new RandomAccessFile(file, "rw");
+			try {
+				buffer = segment.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentSize * RECORD_SIZE);
+			} finally {
+				// the mapping remains valid after the file is closed
+				segment.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open file for writing: " + file);
+		}
+		segmentCount++;
+	}
+
+	static File getSegmentFile(String fileName, int segment) {
+		return new File(fileName + "." + segment);
+	}
+
+	public void genomeCreated(Genome genome) {
+	}
+
+	public void genomeDuplicated(Genome parent, Genome genome, SortedSet<Mutation> mutations) {
+	}
+
+	public void frequencyChanged(Genome genome, int oldFrequency, int newFrequency) {
+	}
+
+	public void genomeKilled(Genome genome) {
+		// the genome may be reused for a new one.
+		genomeIds.remove(genome);
+	}
+
+	public void generationFinished(int generation) {
+	}
+
+	public void genePoolInitialized() {
+		genomeIds.clear();
+	}
+
+	private final int segmentSize;
+
+	private String fileName;
+	private MappedByteBuffer buffer = null;
+	private int segmentCount = 0;
+	private long recordCount = 0;
+
+	private GenePool genePool = null;
+
+	// the ids of the genomes that are alive, as they are first logged.
+	private final Map<Genome, Integer> genomeIds = new IdentityHashMap<Genome, Integer>();
+	private int nextGenomeId = 1;
+
+	// the ids of the viruses of the current generation, and of the next.
+	private long[] extantIds = new long[0];
+	private long[] newExtantIds = new long[0];
+	private int newExtantCount = 0;
+}
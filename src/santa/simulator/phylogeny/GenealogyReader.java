@@ -0,0 +1,189 @@
+package santa.simulator.phylogeny;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.SimpleRootedTree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Reads the genealogy written by a GenealogyLog, to reconstruct the tree of a sample of
+ * any generation of the run.
+ *
+ * The segments of the log are mapped into memory rather than read, so only the records
+ * that are visited are paged in, and the heap used depends on the size of the sample and
+ * not the length of the run. A virus's record is found directly from its id, and the
+ * first record of a generation by a binary search, as the records are in order of
+ * generation.
+ */
+public class GenealogyReader {
+
+	public GenealogyReader(String fileName) throws IOException {
+		for (int segment = 0; GenealogyLog.getSegmentFile(fileName, segment).exists(); segment++) {
+			RandomAccessFile file = new RandomAccessFile(GenealogyLog.getSegmentFile(fileName, segment), "r");
+			try {
+				MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+				segments.add(buffer);
+			} finally {
+				file.close();
+			}
+		}
+		if (segments.isEmpty()) {
+			throw new IOException("Could not find genealogy log: " + fileName);
+		}
+
+		segmentSize = segments.get(0).capacity() / GenealogyLog.RECORD_SIZE;
+		recordCount = (long) segmentSize * (segments.size() - 1) +
+				segments.get(segments.size() - 1).capacity() / GenealogyLog.RECORD_SIZE;
+		if (segmentSize == 0) {
+			recordCount = 0;
+		} else {
+			// a segment that could not be cut to length ends with an empty record
+			long low = (long) segmentSize * (segments.size() - 1);
+			long high = recordCount;
+			while (low < high) {
+				long mid = (low + high) >>> 1;
+				if (getRecordId(mid + 1) == 0) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			recordCount = low;
+		}
+	}
+
+	/**
+	 * @return the number of viruses in the log.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the id of the parent of a virus (0 for the initial population).
+	 */
+	public long getParent(long id) {
+		return getRecord(id).getLong(getOffset(id) + 8);
+	}
+
+	/**
+	 * @return the generation in which a virus was born (0 for the initial population).
+	 */
+	public int getGeneration(long id) {
+		return getRecord(id).getInt(getOffset(id) + 16);
+	}
+
+	/**
+	 * @return the id of the genome of a virus.
+	 */
+	public int getGenomeId(long id) {
+		return getRecord(id).getInt(getOffset(id) + 20);
+	}
+
+	/**
+	 * @return the number of viruses born in a generation.
+	 */
+	public int getGenerationSize(int generation) {
+		return (int) (findGeneration(generation + 1) - findGeneration(generation));
+	}
+
+	/**
+	 * @return the id of the index'th virus of a generation.
+	 */
+	public long getId(int generation, int index) {
+		return findGeneration(generation) + 1 + index;
+	}
+
+	/**
+	 * Reconstruct the tree of a sample of a generation. The heights of the nodes are the
+	 * number of generations before the sample.
+	 *
+	 * @param sample the indices of the viruses in the generation
+	 * @param taxa the taxa to label them with
+	 */
+	public RootedTree reconstructTree(int generation, int[] sample, List<Taxon> taxa) {
+		SimpleRootedTree tree = new SimpleRootedTree();
+
+		// the lineages of the sample, by the id of the virus they have reached
+		Map<Long, Node> lineages = new LinkedHashMap<Long, Node>();
+		for (int i = 0; i < sample.length; i++) {
+			long id = getId(generation, sample[i]);
+			Node node = tree.createExternalNode(taxa.get(i));
+			tree.setHeight(node, 0);
+			Node other = lineages.put(id, node);
+			if (other != null) {
+				throw new IllegalArgumentException("The sample contains virus " + sample[i] + " twice");
+			}
+		}
+
+		// step all the lineages back a generation at a time, joining those that reach the
+		// same parent.
+		Map<Long, List<Node>> parents = new LinkedHashMap<Long, List<Node>>();
+		while (lineages.size() > 1) {
+			parents.clear();
+			for (Map.Entry<Long, Node> lineage : lineages.entrySet()) {
+				long parent = getParent(lineage.getKey());
+				List<Node> children = parents.get(parent);
+				if (children == null) {
+					children = new ArrayList<Node>();
+					parents.put(parent, children);
+				}
+				children.add(lineage.getValue());
+			}
+
+			lineages.clear();
+			for (Map.Entry<Long, List<Node>> parent : parents.entrySet()) {
+				List<Node> children = parent.getValue();
+				if (children.size() == 1) {
+					lineages.put(parent.getKey(), children.get(0));
+				} else {
+					Node node = tree.createInternalNode(children);
+					// the initial population descend from the root, in generation 0
+					tree.setHeight(node, generation - (parent.getKey() != 0 ? getGeneration(parent.getKey()) : 0));
+					lineages.put(parent.getKey(), node);
+				}
+			}
+		}
+
+		return tree;
+	}
+
+	/**
+	 * @return the number of records before the first of the given generation.
+	 */
+	private long findGeneration(int generation) {
+		long low = 0;
+		long high = recordCount;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (getGeneration(mid + 1) < generation) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long getRecordId(long id) {
+		return getRecord(id).getLong(getOffset(id));
+	}
+
+	private MappedByteBuffer getRecord(long id) {
+		return segments.get((int) ((id - 1) / segmentSize));
+	}
+
+	private int getOffset(long id) {
+		return (int) ((id - 1) % segmentSize) * GenealogyLog.RECORD_SIZE;
+	}
+
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private final int segmentSize;
+	private long recordCount;
+}
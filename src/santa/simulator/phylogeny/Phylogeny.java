@@ -8,113 +8,166 @@ import jebl.evolution.graphs.Node;
 import java.util.*;
 
 /**
+ * The genealogy of the population, from which trees of samples of the current
+ * generation are reconstructed.
+ *
+ * Lineages are int indices into parallel arrays of their parent, generation, number
+ * of children and (during reconstruction) number of sampled descendants. Lineages
+ * that die out are pruned as each generation is added, and their indices are reused
+ * from a free stack, so the arrays only grow to the largest number of lineages that
+ * have been alive at once. The size of each generation is taken from the parents
+ * selected for it, so the population may grow or shrink.
+ *
+ * A lineage that is left with a single child is collapsed at the same time, so every
+ * lineage but the current generation is a coalescence, and the oldest is the most
+ * recent common ancestor. Each lineage is pruned or collapsed once, so keeping it up
+ * to date costs constant time per lineage, rather than a walk of every extant lineage
+ * back to the root.
+ *
  * @author Andrew Rambaut
  * @author Alexei Drummond
  * @version $Id: Phylogeny.java,v 1.2 2006/02/20 15:18:00 rambaut Exp $
  */
 public class Phylogeny {
 
+	/**
+	 * @param populationSize the initial size of the population, which may change from
+	 *                       one generation to the next.
+	 */
 	public Phylogeny(int populationSize) {
 		this.populationSize = populationSize;
 		initialize();
 	}
 
 	public void initialize() {
-		extantLineages = new Lineage[populationSize];
-		newExtantLineages = new Lineage[populationSize];
-		availableLineages.clear();
-		lineages.clear();
-
-		mrca = createLineage();
-		mrca.parent = null;
-		mrca.generation = 0;
-		mrca.childCount = 0;
+		initialize(populationSize);
+	}
+
+	/**
+	 * Start a new phylogeny, in which an initial population of the given size descends from
+	 * a single root lineage.
+	 */
+	public void initialize(int populationSize) {
+		extantLineages = new int[Math.max(populationSize, 1)];
+		newExtantLineages = new int[extantLineages.length];
+		extantCount = populationSize;
+		lineageCount = 0;
+		freeCount = 0;
+
+		root = createLineage();
+		parent[root] = NONE;
+		generation[root] = 0;
+		childCount[root] = 0;
+		children[root] = 0;
 		for (int i = 0; i < populationSize; i++) {
-			extantLineages[i] = mrca;
+			extantLineages[i] = root;
 		}
 	}
 
 	public void addGeneration(int generation, List<Integer> selectedParents) {
-		for (int i = 0; i < populationSize; i++) {
-			Lineage child = createLineage();
+		addGeneration(generation, selectedParents, 1);
+	}
 
-			child.parent = extantLineages[selectedParents.get(i)];
-			if (child.parent != null) {
-				child.parent.childCount ++;
+	/**
+	 * Add a generation in which each child was replicated from parentCount consecutive
+	 * entries of selectedParents. The child's lineage descends from the first of them.
+	 * The size of the generation is the number of children, which need not be the size
+	 * of the last.
+	 */
+	public void addGeneration(int generation, List<Integer> selectedParents, int parentCount) {
+		int newExtantCount = selectedParents.size() / parentCount;
+		if (newExtantCount > newExtantLineages.length) {
+			newExtantLineages = new int[Math.max(newExtantCount, newExtantLineages.length * 2)];
+		}
+
+		for (int i = 0; i < newExtantCount; i++) {
+			int child = createLineage();
+
+			int p = extantLineages[selectedParents.get(i * parentCount)];
+			parent[child] = p;
+			if (p != NONE) {
+				childCount[p] ++;
+				children[p] ^= child;
 			}
 
-			child.generation = generation;
-			child.childCount = 0;
+			this.generation[child] = generation;
+			childCount[child] = 0;
+			children[child] = 0;
 
 			newExtantLineages[i] = child;
 		}
 
-		// prune out the dead wood (lineages that weren't selected as parents)
-		for (int i = 0; i < populationSize; i++) {
-			Lineage lineage = extantLineages[i];
-			if (lineage.getChildCount() == 0) {
+		// prune out the dead wood (lineages that weren't selected as parents), and the
+		// lineages that only had a single child.
+		for (int i = 0; i < extantCount; i++) {
+			int lineage = extantLineages[i];
+			if (childCount[lineage] == 0) {
 
-				Lineage parent = lineage.getParent();
+				int p = parent[lineage];
 				removeLineage(lineage);
 
-				while (parent != null && parent.getChildCount() < 2) {
-					lineage = parent;
-					parent = lineage.parent;
+				while (p != NONE) {
+					childCount[p] --;
+					children[p] ^= lineage;
+					if (childCount[p] > 0) {
+						break;
+					}
+					lineage = p;
+					p = parent[lineage];
 
 					// prune the lineage out
 					removeLineage(lineage);
 				}
-				if (parent != null) {
-					parent.childCount --;
+				if (p != NONE && childCount[p] == 1) {
+					// its ancestors no longer coalesce at p
+					collapseLineage(p);
 				}
+			} else if (childCount[lineage] == 1) {
+				collapseLineage(lineage);
 			}
 		}
 
-		Lineage[] tmp = extantLineages;
+		int[] tmp = extantLineages;
 		extantLineages = newExtantLineages;
+		extantCount = newExtantCount;
 		newExtantLineages = tmp;
 
+		// if the population has shrunk a long way, release some of the space
+		if (extantLineages.length > 16 && extantCount < extantLineages.length / 4) {
+			extantLineages = Arrays.copyOf(extantLineages, extantLineages.length / 2);
+		}
+		if (newExtantLineages.length > 16 && extantCount < newExtantLineages.length / 4) {
+			newExtantLineages = new int[newExtantLineages.length / 2];
+		}
 	}
 
-	public int getSize() {
-		return lineages.size() - availableLineages.size();
+	/**
+	 * @return the number of lineages in the current generation.
+	 */
+	public int getExtantCount() {
+		return extantCount;
 	}
 
-	public int getLineageCount() {
-		return lineages.size();
+	/**
+	 * @return the number of lineages in the phylogeny.
+	 */
+	public int getSize() {
+		return lineageCount - freeCount;
 	}
 
-	public Lineage getMRCA() {
-		return mrca;
+	/**
+	 * @return the number of lineages that have been allocated, including those free for reuse.
+	 */
+	public int getLineageCount() {
+		return lineageCount;
 	}
 
-	public void pruneDeadLineages() {
-		int oldestGeneration = Integer.MAX_VALUE;
-		mrca = null;
-
-		// prune out degree 2 nodes
-		for (int i = 0; i < populationSize; i++) {
-			Lineage lineage = extantLineages[i];
-			Lineage parent = lineage.getParent();
-
-			while (parent != null) {
-
-				assert(parent.getChildCount() > 0);
-
-				if (parent.getChildCount() == 1) {
-					lineage.parent = parent.parent;
-					removeLineage(parent);
-				} else {
-					if (parent.getGeneration() < oldestGeneration) {
-						oldestGeneration = parent.getGeneration();
-						mrca = parent;
-					}
-
-					lineage = parent;
-				}
-				parent = lineage.parent;
-			}
-		}
+	/**
+	 * @return the generation of the most recent common ancestor of the current generation
+	 *         (0 if they have not coalesced since the start).
+	 */
+	public int getMRCAGeneration() {
+		return generation[root];
 	}
 
 	/*
@@ -126,17 +179,17 @@ public class Phylogeny {
 	 * branching structure that reflects the lineage of the
 	 * leaves.
 	 *
-	 * In this routine, the leaves of the tree are instances of
-	 * 'Lineage', each of which is the head of a linked list of ancestral lineage objects.  Each lineage element in the 
-	 * list holds a 'count' of the number of leaves that are reachable
-	 * from that object.  While traversing the linked list of lineage
+	 * In this routine, the leaves of the tree are lineages, each of
+	 * which is the head of a linked list of ancestral lineages (through
+	 * the 'parent' array).  Each lineage in the list holds a 'count' of
+	 * the number of leaves that are reachable from it.  While traversing the linked list of lineage
 	 * objects, the count goes up at each point where two or more
 	 * branches coalesce into one.  Each lineage also contains a
 	 * 'generation' that indicates in which generation the lineage was
 	 * created.
 	 *
 	 * At all times, leaves descended from the same immediate common
-	 * ancestor will reference the same lineage object representing
+	 * ancestor will reference the same lineage representing
 	 * that branch point.  This invariant is maintained as the list of
 	 * leaves is changed during tree construction.
 	 * 
@@ -158,7 +211,7 @@ public class Phylogeny {
 	public RootedTree reconstructPhylogeny(int[] sample, List<Taxon> taxa) {
 
 		SimpleRootedTree tree = new SimpleRootedTree();
-		Lineage[] lineages = new Lineage[sample.length];
+		int[] lineages = new int[sample.length];
 		Node[] nodes = new Node[sample.length];
 
 		for (int i = 0; i < sample.length; i++) {
@@ -166,30 +219,30 @@ public class Phylogeny {
 			nodes[i] = tree.createExternalNode(taxa.get(i));
 			tree.setHeight(nodes[i], 0);
 
-			Lineage lineage = lineages[i];
-			while (lineage != null) {
-				lineage.count = 0;
-				lineage = lineage.parent;
+			int lineage = lineages[i];
+			while (lineage != NONE) {
+				count[lineage] = 0;
+				lineage = parent[lineage];
 			}
 			
 		}
 
-		int tipGeneration = lineages[0].generation;
+		int tipGeneration = generation[lineages[0]];
 
 		for (int i = 0; i < sample.length; i++) {
-			Lineage lineage = lineages[i];
-			while (lineage != null) {
-				lineage.count ++;
-				lineage = lineage.parent;
+			int lineage = lineages[i];
+			while (lineage != NONE) {
+				count[lineage] ++;
+				lineage = parent[lineage];
 			}
 		}
 
 		// find the next shared node for each lineage
 		for (int i = 0; i < sample.length; i++) {
-			while (lineages[i] != null && lineages[i].count == 1) {
-				lineages[i] = lineages[i].parent;
+			while (lineages[i] != NONE && count[lineages[i]] == 1) {
+				lineages[i] = parent[lineages[i]];
 			}
-			if (lineages[i] == null) {
+			if (lineages[i] == NONE) {
 				// the phylogeny has not fully coalesced.
 				return null;
 			}
@@ -203,8 +256,8 @@ public class Phylogeny {
 			int i = 0;
 			int maxgen = 0;
 			for (int ii = 0; ii < lineageCount; ii++) {
-				if (maxgen < lineages[ii].generation) {
-					maxgen = lineages[ii].generation;
+				if (maxgen < generation[lineages[ii]]) {
+					maxgen = generation[lineages[ii]];
 					i = ii;
 				}
 			}
@@ -221,7 +274,7 @@ public class Phylogeny {
 
 					// move the lineage/node from the end of the arrays
 					lineages[j] = lineages[lineageCount - 1];
-					lineages[lineageCount - 1] = null;
+					lineages[lineageCount - 1] = NONE;
 					nodes[j] = nodes[lineageCount - 1];
 					lineageCount --;
 				} else {
@@ -234,50 +287,94 @@ public class Phylogeny {
 
 			children.add(nodes[i]);
 			Node node = tree.createInternalNode(children);
-			tree.setHeight(node, tipGeneration - lineages[i].generation);
+			tree.setHeight(node, tipGeneration - generation[lineages[i]]);
 			nodes[i] = node;
 
 			if (lineageCount > 1) {
 				// we still have lineages to coalesce
 
-				int currentCount = lineages[i].count;
-				while (lineages[i].parent != null) {
-					lineages[i] = lineages[i].parent;
-					if (lineages[i].count != currentCount) {
+				int currentCount = count[lineages[i]];
+				while (parent[lineages[i]] != NONE) {
+					lineages[i] = parent[lineages[i]];
+					if (count[lineages[i]] != currentCount) {
 						break;
 					}
 				}
 
 				// sanity check - should never happen
-				assert lineages[i] != null;
+				assert lineages[i] != NONE;
 			}
 		} // end-while
 
 		return tree;
 	}
 
-	private Lineage createLineage() {
-		if (availableLineages.isEmpty()) {
-			Lineage lineage = new Lineage();
-			lineages.add(lineage);
-			return lineage;
-		} else {
-			return availableLineages.remove(0);
+	private int createLineage() {
+		if (freeCount > 0) {
+			return freeLineages[--freeCount];
 		}
+		if (lineageCount == parent.length) {
+			int capacity = Math.max(16, lineageCount * 2);
+			parent = Arrays.copyOf(parent, capacity);
+			generation = Arrays.copyOf(generation, capacity);
+			childCount = Arrays.copyOf(childCount, capacity);
+			children = Arrays.copyOf(children, capacity);
+			count = Arrays.copyOf(count, capacity);
+			freeLineages = Arrays.copyOf(freeLineages, capacity);
+		}
+		return lineageCount++;
 	}
 
-	private void removeLineage(Lineage lineage) {
-		lineage.parent = null;
-		availableLineages.add(lineage);
+	/**
+	 * Remove a lineage with a single child, whose parent becomes the child's parent. The
+	 * child is found from the exclusive-or of the lineage's children, which is all that is
+	 * left of it when there is one.
+	 */
+	private void collapseLineage(int lineage) {
+		int child = children[lineage];
+		int p = parent[lineage];
+		parent[child] = p;
+		if (p != NONE) {
+			children[p] ^= lineage ^ child;
+		} else {
+			root = child;
+		}
+		removeLineage(lineage);
 	}
 
-	private final int populationSize;
-	private final List<Lineage> lineages = new LinkedList<Lineage>();
-	private Lineage[] extantLineages;
-	private Lineage[] newExtantLineages;
+	private void removeLineage(int lineage) {
+		parent[lineage] = NONE;
+		// so that it is not pruned again (the initial lineages all share the root)
+		childCount[lineage] = NONE;
+		freeLineages[freeCount++] = lineage;
+	}
 
-	private Lineage mrca = null;
+	// the parent of no lineage (the parent of the root).
+	private static final int NONE = -1;
 
+	private final int populationSize;
 
-	private List<Lineage> availableLineages = new LinkedList<Lineage>();
+	// the lineages, by index: their parent, the generation in which they were born, the
+	// number of their children, the exclusive-or of their children's indices, and the
+	// number of sampled tips below them (see reconstructPhylogeny()). Indices from
+	// lineageCount up have never been used.
+	private int[] parent = new int[0];
+	private int[] generation = new int[0];
+	private int[] childCount = new int[0];
+	private int[] children = new int[0];
+	private int[] count = new int[0];
+	private int lineageCount = 0;
+
+	// the indices of the pruned lineages, for reuse.
+	private int[] freeLineages = new int[0];
+	private int freeCount = 0;
+
+	// the lineages of the current generation (the first extantCount), and space for the next.
+	private int[] extantLineages;
+	private int[] newExtantLineages;
+	private int extantCount;
+
+	// the oldest lineage, which is the most recent common ancestor of the current
+	// generation, as lineages with a single child are always collapsed.
+	private int root = NONE;
 }
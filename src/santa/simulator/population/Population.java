@@ -17,6 +17,8 @@ import santa.simulator.genomes.GenePool;
 import santa.simulator.genomes.Genome;
 import santa.simulator.genomes.Sequence;
 import santa.simulator.mutators.Mutator;
+import santa.simulator.phylogeny.AncestralRecombinationGraph;
+import santa.simulator.phylogeny.GenealogyLog;
 import santa.simulator.phylogeny.Phylogeny;
 import santa.simulator.replicators.Replicator;
 import santa.simulator.selectors.Selector;
@@ -97,12 +99,23 @@ public class Population {
         }
 
         if (phylogeny != null) {
-            phylogeny.initialize();
+            phylogeny.initialize(initialPopulationSize);
+        }
+        if (recombinationGraph != null) {
+            recombinationGraph.initialize(initialPopulationSize);
+        }
+        if (genealogyLog != null) {
+            genealogyLog.initialize(genePool);
+            for (Virus v : currentGeneration) {
+                genealogyLog.addChild(0, -1, v.getGenome());
+            }
+            genealogyLog.finishGeneration();
         }
     }
 
     public void selectNextGeneration(int generation, Replicator replicator, Mutator mutator, FitnessFunction fitnessFunction) {
         List<Integer> selectedParents = new ArrayList<Integer>();
+        selector.setLogFitnessOffset(fitnessFunction.getLogFitnessOffset());
         growth.select(selector, currentGeneration, selectedParents, replicator.getParentCount(), generation);
 
         Virus[] parents = new Virus[replicator.getParentCount()];
@@ -113,6 +126,7 @@ public class Population {
 
         // then select the currentGeneration based on the last.
         for (int currentParent = 0; currentParent < selectedParents.size() - replicator.getParentCount() + 1;) {
+            int firstParent = currentParent;
             for (int j = 0; j < parents.length; j++) {
                 parents[j] = lastGeneration.get(selectedParents.get(currentParent));
                 currentParent++;
@@ -122,15 +136,37 @@ public class Population {
             Virus child = new Virus();
             replicator.replicate(child, parents, mutator, fitnessFunction, genePool);
             currentGeneration.add(child);
+
+            if (recombinationGraph != null) {
+                if (child.isRecombinant()) {
+                    // the breakpoints are only held until the next replication.
+                    recombinationGraph.addChild(generation,
+                            selectedParents.get(firstParent + child.getFirstParent()),
+                            selectedParents.get(firstParent + 1 - child.getFirstParent()),
+                            child.getBreakPoints(), child.getBreakPointCount());
+                } else {
+                    recombinationGraph.addChild(generation, selectedParents.get(firstParent), -1, null, 0);
+                }
+            }
+            if (genealogyLog != null) {
+                genealogyLog.addChild(generation, selectedParents.get(firstParent), child.getGenome());
+            }
         }
 
         // then kill off the genomes in the last population.
         for (Virus v : lastGeneration) {
             genePool.killGenome(v.getGenome());
         }
+        genePool.finishGeneration(generation);
 ///////////////////////////////////
         if (phylogeny != null) {
-            phylogeny.addGeneration(generation, selectedParents);
+            phylogeny.addGeneration(generation, selectedParents, replicator.getParentCount());
+        }
+        if (recombinationGraph != null) {
+            recombinationGraph.finishGeneration(generation);
+        }
+        if (genealogyLog != null) {
+            genealogyLog.finishGeneration();
         }
 ///////////////////////////////
         statisticsKnown = false;
@@ -316,12 +352,38 @@ public class Population {
         return phylogeny;
     }
 
+    /**
+     * Record the ancestral recombination graph of the population as it evolves
+     * (from the next call to initialize()).
+     */
+    public void setRecombinationGraph(AncestralRecombinationGraph recombinationGraph) {
+        this.recombinationGraph = recombinationGraph;
+    }
+
+    public AncestralRecombinationGraph getRecombinationGraph() {
+        return recombinationGraph;
+    }
+
+    /**
+     * Append the genealogy of the population to a log as it evolves (from the next call to
+     * initialize()).
+     */
+    public void setGenealogyLog(GenealogyLog genealogyLog) {
+        this.genealogyLog = genealogyLog;
+    }
+
+    public GenealogyLog getGenealogyLog() {
+        return genealogyLog;
+    }
+
     private final GenePool genePool;
 
     private final Selector selector;
     private final PopulationGrowth growth;
 
     private final Phylogeny phylogeny;
+    private AncestralRecombinationGraph recombinationGraph = null;
+    private GenealogyLog genealogyLog = null;
 
     private List<Virus> lastGeneration;
     private List<Virus> currentGeneration;
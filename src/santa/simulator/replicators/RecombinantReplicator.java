@@ -1,12 +1,9 @@
 package santa.simulator.replicators;
 
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.logging.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.math3.distribution.BinomialDistribution;
 
@@ -18,7 +15,6 @@ import santa.simulator.genomes.GenePool;
 import santa.simulator.genomes.Genome;
 import santa.simulator.genomes.GenomeDescription;
 import santa.simulator.genomes.Mutation;
-import santa.simulator.genomes.Sequence;
 import santa.simulator.mutators.Mutator;
 
 /**
@@ -38,59 +34,56 @@ public class RecombinantReplicator implements Replicator {
 	}
 
     public void replicate(Virus virus, Virus[] vparents, Mutator mutator, FitnessFunction fitnessFunction, GenePool genePool) {
-		Logger logger = Logger.getLogger("santa.simulator.replicators");
-
 
         if (Random.nextUniform(0.0, 1.0) < dualInfectionProbability * recombinationProbability) {
 
             // dual infection and recombination
-			List<Genome> parents = Arrays.asList(vparents).stream().map(Virus::getGenome).collect(Collectors.toList());
-
 			// sort the parents by increasing genome length
-			parents.sort((p1, p2) -> p1.getLength() - p2.getLength());
+			Genome first = vparents[0].getGenome();
+			Genome second = vparents[1].getGenome();
+			int firstParent = 0;
+			if (first.getLength() > second.getLength()) {
+				Genome tmp = first;
+				first = second;
+				second = tmp;
+				firstParent = 1;
+			}
 
 			// get minimum length of the parents
-			int length = parents.stream().map(g -> g.getLength()).reduce(Integer::min).get() - 1 ;
-
-			// pick number of breakpoints
-			BinomialDistribution binomialDeviate = new BinomialDistribution(Random.randomData.getRandomGenerator(), length, recombinationProbability);
-			int nbreaks = binomialDeviate.sample();
-			
-			// Then draw the positions.
-			// Don't repeat a breakpoint, and only break at codon boundaries.
-			SortedSet<Integer> breakPoints = new TreeSet<Integer>();
-			for (int i = 0; i < nbreaks; i++) {
-				int bp = Random.nextInt(1, length);
-				if (bp % 3 == 0) {
-					breakPoints.add(bp);
-				}
-			}
+			int length = first.getLength() - 1;
 
-			logger.finest("recombination: " + breakPoints.size() + "@" + breakPoints);
+			int breakPointCount = getBreakPoints(length);
+
+			if (logger.isLoggable(Level.FINEST)) {
+				logger.finest("recombination: " + breakPointCount + "@" + Arrays.toString(Arrays.copyOf(breakPoints, breakPointCount)));
+			}
 
 			// create the recombinant genome description
-			GenomeDescription[] gd_parents = parents.stream().map(Genome::getDescription).toArray(GenomeDescription[]::new);
-;
-			GenomeDescription recombinantGenome = GenomeDescription.recombine(gd_parents, breakPoints);
-			
-			Sequence recombinantSequence = getRecombinantSequence(parents, breakPoints);
-
-			Genome genome = genePool.createGenome(recombinantSequence, recombinantGenome);
-			
+			GenomeDescription recombinantGenome = GenomeDescription.recombine(first.getDescription(), second.getDescription(),
+					breakPoints, breakPointCount);
+
+			parents[0] = first;
+			parents[1] = second;
+			Genome genome = genePool.createRecombinantGenome(parents, breakPoints, breakPointCount, recombinantGenome);
+			parents[0] = null;
+			parents[1] = null;
+
 	        SortedSet<Mutation> mutations = mutator.mutate(genome);
 
 	        genome.setFrequency(1);
 
-	        genome.applyMutations(mutations);
+	        genePool.mutateGenome(genome, mutations);
 
 	        // we can't just update some of the fitness so recompute...
 	        fitnessFunction.computeLogFitness(genome);
 
             virus.setGenome(genome);
             virus.setParent(vparents[0]);
-			
-            String fitnessStr = parents.stream().map(Genome::getLogFitness).map(Object::toString).collect(Collectors.joining(", "));
-            EventLogger.log("Recombination: (" + fitnessStr + ") -> " + genome.getLogFitness());
+            virus.setRecombination(firstParent, breakPoints, breakPointCount);
+
+            if (EventLogger.isEnabled()) {
+                EventLogger.log("Recombination: (" + first.getLogFitness() + ", " + second.getLogFitness() + ") -> " + genome.getLogFitness());
+            }
 
         } else {
             // single infection - no recombination...
@@ -106,24 +99,51 @@ public class RecombinantReplicator implements Replicator {
 
     }
 
-
 	/**
-	 * Create a recombined nucleotide sequence from two parents.
+	 * Draw the breakpoints for a recombinant of the given length into breakPoints.
+	 *
+	 * The number of breakpoints is binomial over the sites, and each falls at a uniform
+	 * position. Breakpoints are not repeated, and only fall at codon boundaries.
 	 *
-	 * Given a pair of parent genomes and a set of breakpoints, create
-	 * a new sequence that is a combination of fragments from both
-	 * parents.  breakPoints describes the positions at which we
-	 * switch from one template to the other.  
-
-	 * 'len' is the length of the recombined sequence.  If
-	 * 'breakPoints' is empty, this routine simply copies the sequence
-	 * from first genome in 'parents'.
-	 **/
-    private static Sequence getRecombinantSequence(List<Genome> parents, SortedSet<Integer> breakPoints) {
-		return parents.stream().map(Genome::getSequence).reduce((s1, s2) -> s1.recombineWith(s2, breakPoints)).get();
+	 * @return the number of breakpoints, which are in increasing order.
+	 */
+	private int getBreakPoints(int length) {
+		// pick number of breakpoints
+		if (binomialDeviate == null || binomialDeviate.getNumberOfTrials() != length) {
+			binomialDeviate = new BinomialDistribution(Random.randomData.getRandomGenerator(), length, recombinationProbability);
+		}
+		int nbreaks = binomialDeviate.sample();
+		if (breakPoints.length < nbreaks) {
+			breakPoints = new int[Math.max(nbreaks, breakPoints.length * 2)];
+		}
+
+		// Then draw the positions.
+		int count = 0;
+		for (int i = 0; i < nbreaks; i++) {
+			int bp = Random.nextInt(1, length);
+			if (bp % 3 == 0) {
+				breakPoints[count++] = bp;
+			}
+		}
+
+		// sort them and drop the repeats.
+		Arrays.sort(breakPoints, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || breakPoints[i] != breakPoints[unique - 1]) {
+				breakPoints[unique++] = breakPoints[i];
+			}
+		}
+		return unique;
 	}
 
+    private static final Logger logger = Logger.getLogger("santa.simulator.replicators");
 
     private final double dualInfectionProbability;
     private final double recombinationProbability;
+
+    // reused from one recombination to the next (replication is not concurrent).
+    private BinomialDistribution binomialDeviate = null;
+    private int[] breakPoints = new int[16];
+    private final Genome[] parents = new Genome[2];
 }
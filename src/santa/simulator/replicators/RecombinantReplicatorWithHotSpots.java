@@ -14,8 +14,6 @@ import santa.simulator.genomes.GenePool;
 import santa.simulator.genomes.Genome;
 import santa.simulator.genomes.GenomeDescription;
 import santa.simulator.genomes.Mutation;
-import santa.simulator.genomes.Sequence;
-import santa.simulator.genomes.SimpleSequence;
 import santa.simulator.genomes.RecombinationHotSpot;
 import santa.simulator.mutators.Mutator;
 /**
@@ -58,17 +56,27 @@ public class RecombinantReplicatorWithHotSpots implements Replicator {
 				throw new RuntimeException("Cannot use recombination hotspots with non-zero indel probabilities.");
 
 			}
-			
-            Sequence recombinantSequence = getRecombinantSequence(parent1Genome, parent2Genome);
-            Genome genome = genePool.createGenome(recombinantSequence);
+
+			int breakPointCount = getBreakPoints(parent1Genome.getLength() - 1);
+
+			// the segments between the breakpoints are copied from alternate parents.
+			parentGenomes[0] = parent1Genome;
+			parentGenomes[1] = parent2Genome;
+            Genome genome = genePool.createRecombinantGenome(parentGenomes, breakPoints, breakPointCount, parent1Genome.getDescription());
+			parentGenomes[0] = null;
+			parentGenomes[1] = null;
+
 	        SortedSet<Mutation> mutations = mutator.mutate(genome);
 	        genome.setFrequency(1);
-	        genome.applyMutations(mutations);
+	        genePool.mutateGenome(genome, mutations);
 	        // we can't just update some of the fitness so recompute...
 	        fitnessFunction.computeLogFitness(genome);
             virus.setGenome(genome);
             virus.setParent(parents[0]);
-            EventLogger.log("Recombination: (" + parent1Genome.getLogFitness() + ", " + parent2Genome.getLogFitness() + ") -> " + genome.getLogFitness());
+            virus.setRecombination(0, breakPoints, breakPointCount);
+            if (EventLogger.isEnabled()) {
+                EventLogger.log("Recombination: (" + parent1Genome.getLogFitness() + ", " + parent2Genome.getLogFitness() + ") -> " + genome.getLogFitness());
+            }
         } else {
             // single infection - no recombination...
             Genome parentGenome = parents[0].getGenome();
@@ -78,158 +86,143 @@ public class RecombinantReplicatorWithHotSpots implements Replicator {
             virus.setParent(parents[0]);
         }
 	}
-	//Logic: relative probability of having break point in a (hot) segment = (length of hot segment) * (probability boost factor) / (genome length)
-	//Then we normalize relative probabilities so they sum up to unity.
-    private Sequence getRecombinantSequence(Genome parent1Genome, Genome parent2Genome) {
-		assert(parent1Genome.getLength() == parent2Genome.getLength());
-		assert(parent1Genome.getDescription() == parent2Genome.getDescription());
-		
 
-		int length = parent1Genome.getLength() - 1;
-        int[] breakPoints = getBreakPoints(length);
-        int lastBreakPoint = 0;
-        int currentGenome = 0;
-	    SimpleSequence recombinantSequence = new SimpleSequence(parent1Genome.getSequence());
-        for (int i = 0; i < breakPoints.length; i++) {
-            if (currentGenome == 1) {
-                // If this segment is given by the second parent...
-                for (int j = lastBreakPoint; j < breakPoints[i]; j++) {
-                    recombinantSequence.setNucleotide(j, parent2Genome.getNucleotide(j));
-                }
-            }
-            lastBreakPoint = breakPoints[i];
-            currentGenome = 1 - currentGenome;
-        }
-        return recombinantSequence;    
-    }
-	
-    private int[] getBreakPoints(int length) {
-		
-		BinomialDistribution binomialDeviate = new BinomialDistribution(Random.randomData.getRandomGenerator(), length, recombinationProbability);
+	/**
+	 * Draw the breakpoints for a recombinant into breakPoints.
+	 *
+	 * The number of breakpoints is binomial over the sites. Each falls in a segment
+	 * chosen with the segments' probabilities (from the alias table), and at a uniform
+	 * position within it.
+	 *
+	 * @param length the last position at which a breakpoint may fall.
+	 * @return the number of breakpoints, which are in increasing order.
+	 */
+    int getBreakPoints(int length) {
+		if (segmentLength != length) {
+			buildSegments(length);
+		}
+
         int n = binomialDeviate.sample();
-        int[] breakPoints = new int[n];
-    	int nHotSegments = recombinationHotSpots.size();
-        //Array containing start and end positions of hot segments
-        int[] startPoints = new int[nHotSegments+1];
-        int[] endPoints = new int[nHotSegments+1];
-        startPoints[nHotSegments] = length;
-        endPoints[nHotSegments] = length;
-        for (int i = 0; i< nHotSegments;i++){
-        	startPoints[i] = recombinationHotSpots.get(i).startPosition;
-        	endPoints[i] = recombinationHotSpots.get(i).endPosition;
-       	}
-        Arrays.sort(startPoints);
-        Arrays.sort(endPoints);
-        int nonHotSegmentsCount = nHotSegments+1;
-    	if (startPoints[0] == 0){
-    		nonHotSegmentsCount -= 1;
-    	}
-    	if (endPoints[nHotSegments-1] == length) {
-    		nonHotSegmentsCount -= 1;
-    	}
-    	//Assigning length to non-hot segments:
-    	int[] nonHotStartPoints = new int[nonHotSegmentsCount];
-    	int[] nonHotEndPoints = new int[nonHotSegmentsCount];
-    	int nextHotSegmentIndex = 0;
-    	if(startPoints[0] != 0){
-    		nonHotStartPoints[0] = 0;
-    		nonHotEndPoints[0] = startPoints[0] -1 ;
-    	}
-    	else {
-    		nextHotSegmentIndex += 1;
-    		nonHotStartPoints[0] = endPoints[0] + 1;
-    		nonHotEndPoints[0] = startPoints[1] -1 ;
-    	}
-    	if (endPoints[nHotSegments-1] != length) {
-    		nonHotStartPoints[nonHotSegmentsCount-1] = endPoints[nHotSegments-1]+1;
-    		nonHotEndPoints[nonHotSegmentsCount-1] = length;
-    	}
-    	else {
-    		nonHotStartPoints[nonHotSegmentsCount-1] = endPoints[nHotSegments-2]+1;
-    		nonHotEndPoints[nonHotSegmentsCount-1] = startPoints[nHotSegments-1]-1;
-    	}
-    	for (int i = 1; i < nonHotSegmentsCount-1; i++) {
-    		nonHotStartPoints[i] = endPoints[nextHotSegmentIndex]+1;
-    			nonHotEndPoints[i] = startPoints[nextHotSegmentIndex+1]-1;
-    		if (nextHotSegmentIndex < nonHotSegmentsCount -1)
-    			nextHotSegmentIndex += 1;   	
-    	}
-        int overallSegmentsCount = nonHotSegmentsCount + nHotSegments;
-        //The following array would contain probability of containing breakpoints at each segment: Hot segments + normal segments
-        double[]  segmentRelativeProbabilities = new double[overallSegmentsCount];
-        double[]  segmentProbabilities = new double[overallSegmentsCount];
-        double[] cumulativeSegmentProbabilities = new double[overallSegmentsCount];
-        Integer overallHotSegmentsLength = 0;
-        Integer segmentLength;
-        double relativeProbabilitiesSum = 0;
-        double boostFactor;    	
-        for (int i = 0 ; i < nHotSegments ; i++ ) {
-        	segmentLength =  recombinationHotSpots.get(i).endPosition -recombinationHotSpots.get(i).startPosition+1;        	
-        	overallHotSegmentsLength += segmentLength;
-        	boostFactor = recombinationHotSpots.get(i).probBoost;
-        	segmentRelativeProbabilities[i] = segmentLength * boostFactor /length ;
-        	relativeProbabilitiesSum += segmentRelativeProbabilities[i]; 
-        }
-        for (int i =0 ; i< overallSegmentsCount- nHotSegments ; i++) {
-        	segmentLength = nonHotEndPoints[i] - nonHotStartPoints[i] + 1;
-        	segmentRelativeProbabilities[i+nHotSegments] =  (double)segmentLength / (double)length ;
-        	relativeProbabilitiesSum += segmentRelativeProbabilities[i+nHotSegments];
-    	}
-        int[] nBreakPointsPerSegment = new int[overallSegmentsCount];
-    	//Getting absolute & cumulative probabilities:
-    	cumulativeSegmentProbabilities[0] = 0; 
-    	for (int i = 0 ; i < overallSegmentsCount ; i++ ){
-    		segmentProbabilities[i] = segmentRelativeProbabilities[i] / relativeProbabilitiesSum;
-    		
-    		if(i == 0) {
-    			cumulativeSegmentProbabilities[i] = segmentProbabilities[i]; 
-    		}
-    		else {
-    			cumulativeSegmentProbabilities[i] = cumulativeSegmentProbabilities[i-1] + segmentProbabilities[i]; 
-    		}
-			nBreakPointsPerSegment[i] = 0;
-    	}
-    	double r;
-    	boolean set;
-    	int sumNBreakPoints = 0;
-    	for(int i = 0 ; i < n ; i++) {
-    		r = santa.simulator.Random.nextUniform(0.0, 1.0);
-    		set = false;
-    		for(int j = 0; j< overallSegmentsCount; j++) {
-    			if ((r < cumulativeSegmentProbabilities[j]) && set == false) {
-        			nBreakPointsPerSegment[j] +=1;
-        			sumNBreakPoints += 1;
-        			set = true;
-    			}
-    			else {
-    				//Do nothing, be cool
-    			}	
-    		}
-    	}
-    	if (sumNBreakPoints != n){
-    		throw new RuntimeException("Error in Assignment of break point positions");
-    	}
-    	//Now assigning breakpoints within each hot segment:
-    	int breakPointIndex = 0;
-    	for (int i = 0; i < nHotSegments ; i++) {
-    		
-    		for (int j = 0; j< nBreakPointsPerSegment[i]; j++) {
-    			breakPoints[breakPointIndex] = Random.nextSecureInt(recombinationHotSpots.get(i).startPosition, recombinationHotSpots.get(i).endPosition);
-    			breakPointIndex += 1;
-    		}
-    	}
-    	for (int i = 0; i < nonHotSegmentsCount ; i++) {
-    		for(int j = 0; j<nBreakPointsPerSegment[i+nHotSegments];j++) {
-    			breakPoints[breakPointIndex] = Random.nextInt(nonHotStartPoints[i], nonHotEndPoints[i]);
-    			breakPointIndex += 1;
-    		}
-    	}
-        Arrays.sort(breakPoints);
-        
-        return breakPoints;
+		if (breakPoints.length < n) {
+			breakPoints = new int[Math.max(n, breakPoints.length * 2)];
+		}
+		for (int i = 0; i < n; i++) {
+			int k = Random.nextInt(0, segmentCount - 1);
+			if (Random.nextUniform(0.0, 1.0) >= aliasProbabilities[k]) {
+				k = aliases[k];
+			}
+			breakPoints[i] = Random.nextInt(segmentStarts[k], segmentEnds[k]);
+		}
+		Arrays.sort(breakPoints, 0, n);
+        return n;
     }
-	
+
+	/**
+	 * @return the i'th breakpoint drawn by the last call to getBreakPoints().
+	 */
+	int getBreakPoint(int i) {
+		return breakPoints[i];
+	}
+
+	//Logic: relative probability of having break point in a (hot) segment = (length of hot segment) * (probability boost factor) / (genome length)
+	//Then we normalize relative probabilities so they sum up to unity.
+	/**
+	 * Divide the positions 0..length into the hot segments and the (normal) segments
+	 * between them, and build the alias table for drawing a segment with probability in
+	 * proportion to its length times its boost factor. This only depends on the length,
+	 * which does not change as indels cannot be used with hotspots.
+	 */
+	private void buildSegments(int length) {
+		List<RecombinationHotSpot> hotSpots = new ArrayList<RecombinationHotSpot>(recombinationHotSpots);
+		hotSpots.sort((h1, h2) -> h1.startPosition - h2.startPosition);
+
+		int maxSegments = 2 * hotSpots.size() + 1;
+		segmentStarts = new int[maxSegments];
+		segmentEnds = new int[maxSegments];
+		double[] weights = new double[maxSegments];
+		segmentCount = 0;
+		int next = 0;	// the first position not yet in a segment
+		for (RecombinationHotSpot hotSpot : hotSpots) {
+			int start = Math.max(hotSpot.startPosition, next);
+			int end = Math.min(hotSpot.endPosition, length);
+			if (start > end) {
+				continue;
+			}
+			if (start > next) {
+				addSegment(next, start - 1, start - next, weights);
+			}
+			addSegment(start, end, (end - start + 1) * hotSpot.probBoost, weights);
+			next = end + 1;
+		}
+		if (next <= length) {
+			addSegment(next, length, length - next + 1, weights);
+		}
+
+		// Vose's alias method: each entry of the table holds (part of) a segment with
+		// less than the mean weight, topped up by a segment with more.
+		aliasProbabilities = new double[segmentCount];
+		aliases = new int[segmentCount];
+		double total = 0;
+		for (int i = 0; i < segmentCount; i++) {
+			total += weights[i];
+		}
+		int[] small = new int[segmentCount];
+		int[] large = new int[segmentCount];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < segmentCount; i++) {
+			weights[i] = weights[i] * segmentCount / total;
+			if (weights[i] < 1.0) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			aliasProbabilities[s] = weights[s];
+			aliases[s] = l;
+			weights[l] = (weights[l] + weights[s]) - 1.0;
+			if (weights[l] < 1.0) {
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		// what is left has (up to rounding) the mean weight.
+		while (largeCount > 0) {
+			aliasProbabilities[large[--largeCount]] = 1.0;
+		}
+		while (smallCount > 0) {
+			aliasProbabilities[small[--smallCount]] = 1.0;
+		}
+
+		binomialDeviate = new BinomialDistribution(Random.randomData.getRandomGenerator(), length, recombinationProbability);
+		segmentLength = length;
+	}
+
+	private void addSegment(int start, int end, double weight, double[] weights) {
+		segmentStarts[segmentCount] = start;
+		segmentEnds[segmentCount] = end;
+		weights[segmentCount] = weight;
+		segmentCount++;
+	}
+
     private final double dualInfectionProbability;
     private final double recombinationProbability;
     private List<RecombinationHotSpot> recombinationHotSpots= new ArrayList<RecombinationHotSpot>();
+
+	// the segments and their alias table, built for genomes of segmentLength + 1 nucleotides.
+	private int segmentLength = -1;
+	private int segmentCount;
+	private int[] segmentStarts;
+	private int[] segmentEnds;
+	private double[] aliasProbabilities;
+	private int[] aliases;
+	private BinomialDistribution binomialDeviate = null;
+
+	// reused from one recombination to the next (replication is not concurrent).
+	private int[] breakPoints = new int[16];
+	private final Genome[] parentGenomes = new Genome[2];
 }
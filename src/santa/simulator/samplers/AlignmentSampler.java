@@ -11,6 +11,7 @@ import santa.simulator.Virus;
 import santa.simulator.genomes.AminoAcid;
 import santa.simulator.genomes.Feature;
 import santa.simulator.genomes.Nucleotide;
+import santa.simulator.genomes.SiteProjection;
 import santa.simulator.population.Population;
 
 /**
@@ -28,6 +29,7 @@ public class AlignmentSampler implements Sampler {
 
     private final Feature feature;
     private final Set<Integer> sites;
+    private final SiteProjection projection;
     //Abbas: final modifier was removed from sampleSize
     private int sampleSize;
     private Format format;
@@ -60,6 +62,7 @@ public class AlignmentSampler implements Sampler {
 
         this.feature = feature;
         this.sites = sites;
+        this.projection = new SiteProjection(feature, sites);
         this.fileName = fileName;
         this.sampleSize = sampleSize;
         this.consensus = consensus;
@@ -171,21 +174,22 @@ public class AlignmentSampler implements Sampler {
             destination.print(l + "\t");
             destination.println(computeConsensus(sample));
         } else {
+            byte[] states = new byte[projection.getSiteCount()];
             int i = 1;
             for (Virus virus : sample) {
                 String l = substituteVariables(label, generation, i, virus.getFitness());
 
                 destination.print(l + "\t");
 
-                byte[] states = virus.getGenome().getStates(feature);
+                int count = virus.getGenome().getStates(projection, states);
                 if (feature.getFeatureType() == Feature.Type.AMINO_ACID) {
-                    for (int site : sites) {
-                        destination.print(AminoAcid.asChar(states[site]));
+                    for (int j = 0; j < count; j++) {
+                        destination.print(AminoAcid.asChar(states[j]));
                     }
                     destination.println();
                 } else {
-                    for (int site : sites) {
-                        destination.print(Nucleotide.asChar(states[site]));
+                    for (int j = 0; j < count; j++) {
+                        destination.print(Nucleotide.asChar(states[j]));
                     }
                     destination.println();
 
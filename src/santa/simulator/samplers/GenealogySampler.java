@@ -0,0 +1,38 @@
+package santa.simulator.samplers;
+
+import santa.simulator.phylogeny.GenealogyLog;
+import santa.simulator.population.Population;
+
+/**
+ * Writes the complete genealogy of each replicate to a GenealogyLog, which is appended to
+ * by the population every generation. At each sample the records so far are written
+ * through to the file, so that a run that is stopped keeps its genealogy up to then.
+ * The trees of samples at any generation can be reconstructed from the log afterwards
+ * with a GenealogyReader.
+ */
+public class GenealogySampler implements Sampler {
+
+	private final GenealogyLog genealogyLog;
+	private final String fileName;
+
+	/**
+	 * @param genealogyLog the log the population writes to
+	 * @param fileName     name of the log's files, with a possible %r variable
+	 */
+	public GenealogySampler(GenealogyLog genealogyLog, String fileName) {
+		this.genealogyLog = genealogyLog;
+		this.fileName = fileName;
+	}
+
+	public void initialize(int replicate) {
+		genealogyLog.open(fileName.replaceAll("%r", String.valueOf(replicate+1)));
+	}
+
+	public void sample(int generation, Population population) {
+		genealogyLog.flush();
+	}
+
+	public void cleanUp() {
+		genealogyLog.close();
+	}
+}
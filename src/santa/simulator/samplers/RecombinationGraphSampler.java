@@ -0,0 +1,132 @@
+package santa.simulator.samplers;
+
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Utils;
+import santa.simulator.Random;
+import santa.simulator.phylogeny.AncestralRecombinationGraph;
+import santa.simulator.population.Population;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Samples the ancestral recombination graph of the population: either the local trees of
+ * each sample (one for each interval of the genome with a distinct genealogy), or the
+ * graph's node and edge tables, simplified to all the samples, at the end of the run.
+ */
+public class RecombinationGraphSampler implements Sampler {
+	public enum Format {
+		TREES,
+		TABLES
+	};
+
+	private final int sampleSize;
+	private RecombinationGraphSampler.Format format;
+	private String label;
+	private String fileName;
+	private PrintWriter destination;
+	private Map<Integer,Integer> schedule;
+	private int replicate;
+
+	private AncestralRecombinationGraph recombinationGraph;
+	private List<String> labels = new ArrayList<String>();
+
+	/**
+	 * Construct a recombination graph sampler
+	 * @param sampleSize  amount of sequences to sample at regular intervals
+	 * @param schedule    amount of sequences to sample at irregular intervals
+	 * @param format      format
+	 * @param label       label with possible %g, %s and %t variables
+	 * @param fileName    name of the file to write the samples
+	 */
+	public RecombinationGraphSampler(int sampleSize,
+	                   Map<Integer,Integer> schedule, RecombinationGraphSampler.Format format, String label, String fileName) {
+		this.format = format;
+		this.fileName = fileName;
+
+		if (label == null) {
+			this.label = "virus_%g_%s";
+		} else {
+			this.label = label;
+		}
+
+		this.sampleSize = sampleSize;
+		this.schedule = schedule;
+	}
+
+	public void initialize(int replicate) {
+		this.replicate = replicate;
+		String fName = substituteVariables(fileName, 0, 0);
+
+		try {
+			destination = new PrintWriter(fName);
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException("Could not open file for writing: " + fName);
+		}
+
+		if (format == RecombinationGraphSampler.Format.TREES) {
+			destination.println("generation\tleft\tright\ttree");
+		}
+		recombinationGraph = null;
+		labels.clear();
+	}
+
+	private String substituteVariables(String name, int generation, int seq) {
+		String result = name.replaceAll("%r", String.valueOf(replicate+1));
+		result = result.replaceAll("%g", String.valueOf(generation));
+		result = result.replaceAll("%s", String.valueOf(seq));
+		return result;
+	}
+
+	public void sample(int generation, Population population) {
+		int[] sample = getSample(generation, population);
+		if (sample == null) {
+			return;
+		}
+		recombinationGraph = population.getRecombinationGraph();
+
+		if (format == RecombinationGraphSampler.Format.TREES) {
+			List<Taxon> taxa = new ArrayList<Taxon>();
+			for (int i = 0; i < sample.length; i++) {
+				taxa.add(Taxon.getTaxon(substituteVariables(label, generation, i + 1)));
+			}
+			List<AncestralRecombinationGraph.LocalTree> trees = recombinationGraph.reconstructLocalTrees(sample, taxa);
+			if (trees != null) {
+				for (AncestralRecombinationGraph.LocalTree tree : trees) {
+					destination.println(generation + "\t" + tree.getLeft() + "\t" + tree.getRight() + "\t" + Utils.toNewick(tree.getTree()));
+				}
+			}
+		} else {
+			int[] ids = recombinationGraph.addSamples(sample);
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] == labels.size()) {
+					labels.add(substituteVariables(label, generation, i + 1));
+				}
+			}
+		}
+	}
+
+	protected int[] getSample(int generation, Population population) {
+		// the population may have shrunk below the sample size
+		int populationSize = population.getPopulationSize();
+		if (schedule == null) {
+			return Random.nextPermutation(populationSize, Math.min(sampleSize, populationSize));
+		} else {
+			if (schedule.containsKey(generation)) {
+				int count = schedule.get(generation);
+				return Random.nextPermutation(populationSize, Math.min(count, populationSize));
+			} else
+				return null;
+		}
+	}
+
+	public void cleanUp() {
+		if (format == RecombinationGraphSampler.Format.TABLES && recombinationGraph != null) {
+			recombinationGraph.writeTables(destination, labels);
+		}
+
+		destination.close();
+		destination = null;
+		recombinationGraph = null;
+	}
+}
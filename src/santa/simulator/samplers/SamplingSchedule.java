@@ -1,5 +1,6 @@
 package santa.simulator.samplers;
 
+import santa.simulator.phylogeny.GenealogyLog;
 import santa.simulator.population.Population;
 
 import java.util.ArrayList;
@@ -49,7 +50,41 @@ public class SamplingSchedule {
         isSamplingTrees = samplingTrees;
     }
 
+    public boolean isSamplingRecombinationGraph() {
+        return recombinationGraphSimplifyInterval != -1;
+    }
+
+    /**
+     * @return the number of generations between simplifications of the recombination graph.
+     */
+    public int getRecombinationGraphSimplifyInterval() {
+        return recombinationGraphSimplifyInterval;
+    }
+
+    /**
+     * Record the recombination graph, simplifying it every simplifyInterval generations.
+     * If more than one sampler records it, the shortest interval is used.
+     */
+    public void setSamplingRecombinationGraph(int simplifyInterval) {
+        if (recombinationGraphSimplifyInterval == -1 || simplifyInterval < recombinationGraphSimplifyInterval) {
+            recombinationGraphSimplifyInterval = simplifyInterval;
+        }
+    }
+
+    /**
+     * @return the log the population's genealogy is written to, or null.
+     */
+    public GenealogyLog getGenealogyLog() {
+        return genealogyLog;
+    }
+
+    public void setGenealogyLog(GenealogyLog genealogyLog) {
+        this.genealogyLog = genealogyLog;
+    }
+
     private boolean isSamplingTrees = false;
+    private int recombinationGraphSimplifyInterval = -1;
+    private GenealogyLog genealogyLog = null;
 
     private List<Entry> entries = new ArrayList<Entry>();
 
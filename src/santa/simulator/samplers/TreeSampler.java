@@ -95,12 +95,14 @@ public class TreeSampler implements Sampler {
 	}
 
 	protected int[] getSample(int generation, Population population) {
+		// the population may have shrunk below the sample size
+		int populationSize = population.getPopulationSize();
 		if (schedule == null) {
-			return Random.nextPermutation(population.getPopulationSize(), sampleSize);
+			return Random.nextPermutation(populationSize, Math.min(sampleSize, populationSize));
 		} else {
 			if (schedule.containsKey(generation)) {
 				int count = schedule.get(generation);
-				return Random.nextPermutation(population.getPopulationSize(), count);
+				return Random.nextPermutation(populationSize, Math.min(count, populationSize));
 			} else
 				return null;
 		}
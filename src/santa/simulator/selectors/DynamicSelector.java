@@ -15,6 +15,9 @@ public class DynamicSelector implements Selector {
 
 	private double expectedProgenyCount;
 
+	// the fitness common to all viruses, which is not included in their genomes' fitness.
+	private double commonFitness = 1.0;
+
 	public DynamicSelector() {
 
 	}
@@ -26,7 +29,7 @@ public class DynamicSelector implements Selector {
 
 	public void selectParents(List<Virus> currentGeneration, List<Integer> selectedParents, int nbOfParents) {
 		for(int i = 0; i < currentGeneration.size(); ++i) {
-			double fitness = currentGeneration.get(i).getFitness();
+			double fitness = currentGeneration.get(i).getFitness() * commonFitness;
 			//Abbas: The below formulation of logistic growth was implemented by Gertjan
 			//It was noticed that for slower growth rates, the simulator overshoots the carrying size.
 			//A slightly different formulation is introduced according to: https://www.maa.org/press/periodicals/loci/joma/logistic-growth-model-background-logistic-modeling
@@ -40,4 +43,9 @@ public class DynamicSelector implements Selector {
 		Collections.shuffle(selectedParents);
 	}
 
+	public void setLogFitnessOffset(double logFitnessOffset) {
+		// the number of progeny depends on the absolute fitness.
+		commonFitness = Math.exp(logFitnessOffset);
+	}
+
 }
@@ -17,4 +17,12 @@ public interface Selector {
 
 	void selectParents(List<Virus> currentGeneration, List<Integer> selectedParents, int sampleSize);
 
+	/**
+	 * Set a log fitness that applies to every virus in addition to that of its genome
+	 * (see FitnessFunction.getLogFitnessOffset()) for the next selection. Selection that
+	 * only depends on the fitness relative to the other viruses can ignore it.
+	 */
+	default void setLogFitnessOffset(double logFitnessOffset) {
+	}
+
 }
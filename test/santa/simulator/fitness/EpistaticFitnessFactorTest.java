@@ -0,0 +1,156 @@
+package santa.simulator.fitness;
+
+import santa.simulator.genomes.Feature;
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.Mutation;
+import santa.simulator.genomes.Sequence;
+import santa.simulator.genomes.SimpleGenePool;
+import santa.simulator.genomes.SimpleSequence;
+import santa.simulator.genomes.StateChange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the incremental fitness of the epistatic factor (computed from the
+ * neighbours of the mutated sites) agrees with computing it from scratch, with 10^4
+ * interactions.
+ */
+public class EpistaticFitnessFactorTest {
+
+	private static final int GENOME_LENGTH = 3000;
+	private static final int INTERACTION_COUNT = 10000;
+	private static final int GENOME_COUNT = 200;
+
+	private static Sequence master;
+	private static Feature nucleotides;
+	private static Feature aminoAcids;
+
+	@BeforeClass
+	public static void onceExecutedBeforeAll() throws Exception {
+		Random random = new Random(1);
+		SimpleSequence sequence = new SimpleSequence(GENOME_LENGTH);
+		for (int i = 0; i < GENOME_LENGTH; i++) {
+			sequence.setNucleotide(i, (byte) random.nextInt(4));
+		}
+		master = sequence;
+
+		nucleotides = new Feature("NT", Feature.Type.NUCLEOTIDE);
+		nucleotides.addFragment(0, GENOME_LENGTH);
+		aminoAcids = new Feature("AA", Feature.Type.AMINO_ACID);
+		aminoAcids.addFragment(0, GENOME_LENGTH);
+
+		List<Feature> features = new ArrayList<Feature>();
+		features.add(nucleotides);
+		features.add(aminoAcids);
+
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, features, Collections.singletonList(master));
+	}
+
+	@Test
+	public void testNucleotideInteractions() {
+		checkIncrementalFitness(nucleotides, 4, GENOME_LENGTH);
+	}
+
+	@Test
+	public void testAminoAcidInteractions() {
+		checkIncrementalFitness(aminoAcids, 21, GENOME_LENGTH / 3);
+	}
+
+	private void checkIncrementalFitness(Feature feature, int stateCount, int siteCount) {
+		Random random = new Random(2);
+		List<EpistaticFitnessFactor.Interaction> interactions = createInteractions(random, stateCount, siteCount);
+		EpistaticFitnessFactor factor = new EpistaticFitnessFactor(feature, interactions);
+		assertEquals(INTERACTION_COUNT, factor.getInteractionCount());
+
+		List<FitnessFactor> factors = new ArrayList<FitnessFactor>();
+		factors.add(factor);
+		FitnessFunction fitnessFunction = new FitnessFunction(factors);
+		GenePool genePool = new SimpleGenePool();
+
+		List<Genome> genomes = new ArrayList<Genome>();
+		List<SortedSet<Mutation>> mutations = new ArrayList<SortedSet<Mutation>>();
+		for (int i = 0; i < GENOME_COUNT; i++) {
+			SimpleSequence sequence = new SimpleSequence(master);
+			for (int j = 0; j < 20; j++) {
+				sequence.setNucleotide(random.nextInt(GENOME_LENGTH), (byte) random.nextInt(4));
+			}
+			Genome genome = genePool.createGenome(sequence);
+			fitnessFunction.computeLogFitness(genome);
+			genomes.add(genome);
+			mutations.add(createMutations(random, sequence, interactions.get(random.nextInt(INTERACTION_COUNT)),
+					feature == aminoAcids ? 3 : 1));
+		}
+
+		for (int i = 0; i < GENOME_COUNT; i++) {
+			Genome mutant = genePool.duplicateGenome(genomes.get(i), mutations.get(i), fitnessFunction);
+			double expected = factor.computeLogFitness(mutant.getStates(feature));
+			assertEquals("fitness of mutant " + i, expected, mutant.getLogFitness(), 1E-9);
+		}
+
+		// the incremental changes may be computed by several threads at once
+		final List<List<StateChange>> changes = new ArrayList<List<StateChange>>();
+		double[] serial = new double[GENOME_COUNT];
+		for (int i = 0; i < GENOME_COUNT; i++) {
+			changes.add(genomes.get(i).getChanges(feature, mutations.get(i)));
+			serial[i] = factor.getLogFitnessChange(genomes.get(i), changes.get(i));
+		}
+		double[] parallel = IntStream.range(0, GENOME_COUNT).parallel()
+				.mapToDouble(i -> factor.getLogFitnessChange(genomes.get(i), changes.get(i)))
+				.toArray();
+		assertArrayEquals(serial, parallel, 0);
+	}
+
+	private List<EpistaticFitnessFactor.Interaction> createInteractions(Random random, int stateCount, int siteCount) {
+		List<EpistaticFitnessFactor.Interaction> interactions = new ArrayList<EpistaticFitnessFactor.Interaction>();
+		while (interactions.size() < INTERACTION_COUNT) {
+			int first = random.nextInt(siteCount);
+			int second = random.nextInt(siteCount);
+			if (first == second) {
+				continue;
+			}
+			double[][] logFitness = new double[stateCount][stateCount];
+			for (int i = 0; i < stateCount; i++) {
+				for (int j = 0; j < stateCount; j++) {
+					logFitness[i][j] = (random.nextDouble() < 0.2 ? -random.nextDouble() : 0);
+				}
+			}
+			interactions.add(new EpistaticFitnessFactor.Interaction(first, second, logFitness));
+		}
+		return interactions;
+	}
+
+	/**
+	 * A few random substitutions, and one at each site of the given interaction so that
+	 * the two ends of an interaction change together.
+	 */
+	private SortedSet<Mutation> createMutations(Random random, Sequence sequence,
+	                                             EpistaticFitnessFactor.Interaction interaction, int tokenSize) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int j = 0; j < 3; j++) {
+			positions.add(random.nextInt(GENOME_LENGTH));
+		}
+		positions.add(interaction.getFirstSite() * tokenSize + random.nextInt(tokenSize));
+		positions.add(interaction.getSecondSite() * tokenSize + random.nextInt(tokenSize));
+
+		SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+		for (int position : positions) {
+			byte state = (byte) ((sequence.getNucleotide(position) + 1 + random.nextInt(3)) % 4);
+			mutations.add(Mutation.getMutation(position, state));
+		}
+		return mutations;
+	}
+}
@@ -0,0 +1,161 @@
+package santa.simulator.fitness;
+
+import santa.simulator.Random;
+import santa.simulator.Virus;
+import santa.simulator.genomes.Feature;
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.Sequence;
+import santa.simulator.genomes.SimpleGenePool;
+import santa.simulator.genomes.SimpleSequence;
+import santa.simulator.genomes.StateChange;
+import santa.simulator.population.Population;
+import santa.simulator.selectors.DynamicSelector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the population size dependent factor is applied as an offset to the
+ * fitness at selection, rather than stored in (and recomputed for) every genome.
+ */
+public class PopulationSizeDependentFitnessFactorTest {
+
+	private static Sequence master;
+	private static Feature pol;
+
+	@BeforeClass
+	public static void initializeGenomeDescriptor() throws Exception {
+		List<Sequence> sequences = new ArrayList<Sequence>();
+		master = new SimpleSequence("aaaaCCCCCcCCCCggTTTTTTaa");
+		sequences.add(master);
+
+		List<Feature> features = new ArrayList<Feature>();
+		pol = new Feature("POL", Feature.Type.NUCLEOTIDE);
+		pol.addFragment(4, 10);
+		features.add(pol);
+
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(master.getLength(), features, sequences);
+	}
+
+	/**
+	 * A factor that never changes, and counts how often a genome's contribution is computed.
+	 */
+	private static class CountingFitnessFactor extends AbstractFitnessFactor {
+		int computeCount = 0;
+
+		CountingFitnessFactor(Feature feature) {
+			super(feature, new TreeSet<Integer>());
+		}
+
+		public double computeLogFitness(byte[] states) {
+			computeCount++;
+			return -0.5;
+		}
+
+		public double getLogFitnessChange(StateChange change) {
+			return 0;
+		}
+	}
+
+	/**
+	 * A population whose size and mean fitness are set by the test.
+	 */
+	private static class FixedPopulation extends Population {
+		int size;
+
+		FixedPopulation() {
+			super(null, null, null, null);
+		}
+
+		public int getPopulationSize() {
+			return size;
+		}
+
+		public double getMeanFitness() {
+			return 0.5;
+		}
+	}
+
+	@Test
+	public void populationSizeShouldNotRecomputeGenomes() {
+		CountingFitnessFactor countingFactor = new CountingFitnessFactor(pol);
+		PopulationSizeDependentFitnessFactor sizeFactor = new PopulationSizeDependentFitnessFactor(1000, 0.01, pol, new TreeSet<Integer>());
+
+		List<FitnessFactor> factors = new ArrayList<FitnessFactor>();
+		factors.add(countingFactor);
+		factors.add(sizeFactor);
+		FitnessFunction fitnessFunction = new FitnessFunction(factors);
+
+		GenePool genePool = new SimpleGenePool();
+		genePool.initialize();
+		List<Genome> genomes = new ArrayList<Genome>();
+		for (int i = 0; i < 5; i++) {
+			Genome genome = genePool.createGenome(master);
+			fitnessFunction.computeLogFitness(genome);
+			genomes.add(genome);
+		}
+		int computeCount = countingFactor.computeCount;
+
+		FixedPopulation population = new FixedPopulation();
+		double lastOffset = Double.NaN;
+		for (int generation = 1; generation <= 20; generation++) {
+			population.size = 500 + 50 * generation;
+			fitnessFunction.updateGeneration(generation, population);
+
+			// the offset follows the factor, and changes with the population size
+			assertEquals(sizeFactor.getLogFitness(), fitnessFunction.getLogFitnessOffset(), 0);
+			assertTrue(fitnessFunction.getLogFitnessOffset() != lastOffset);
+			lastOffset = fitnessFunction.getLogFitnessOffset();
+
+			for (Genome genome : genomes) {
+				fitnessFunction.updateLogFitness(genome);
+				// the genome's own fitness does not include the offset
+				assertEquals(-0.5, genome.getLogFitness(), 0);
+				assertEquals(1, fitnessFunction.getFactorContributions(genome).length);
+			}
+		}
+		assertEquals("Genome contributions were recomputed", computeCount, countingFactor.computeCount);
+	}
+
+	@Test
+	public void dynamicSelectorShouldApplyOffset() {
+		Random.setSeed(11);
+
+		GenePool genePool = new SimpleGenePool();
+		genePool.initialize();
+		FitnessFunction fitnessFunction = new FitnessFunction(new ArrayList<FitnessFactor>());
+		Genome genome = genePool.createGenome(master);
+		fitnessFunction.computeLogFitness(genome);
+
+		int populationSize = 5000;
+		List<Virus> viruses = new ArrayList<Virus>();
+		for (int i = 0; i < populationSize; i++) {
+			viruses.add(new Virus(genome, null));
+		}
+
+		// far from the carrying population, each virus has growthRate x fitness progeny on average.
+		DynamicSelector selector = new DynamicSelector(2.0, 1E12);
+		assertEquals(2.0, getMeanProgenyCount(selector, viruses), 0.1);
+
+		selector.setLogFitnessOffset(Math.log(0.25));
+		assertEquals(0.5, getMeanProgenyCount(selector, viruses), 0.05);
+
+		selector.setLogFitnessOffset(0);
+		assertEquals(2.0, getMeanProgenyCount(selector, viruses), 0.1);
+	}
+
+	private double getMeanProgenyCount(DynamicSelector selector, List<Virus> viruses) {
+		List<Integer> selectedParents = new ArrayList<Integer>();
+		selector.selectParents(viruses, selectedParents, 1);
+		return (double) selectedParents.size() / viruses.size();
+	}
+}
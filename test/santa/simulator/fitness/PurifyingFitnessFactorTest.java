@@ -1,7 +1,12 @@
 package santa.simulator.fitness;
 
+import santa.simulator.Random;
 import santa.simulator.SimulatorParser;
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.Genome;
 import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.Mutation;
+import santa.simulator.genomes.SimpleGenePool;
 import santa.simulator.genomes.Sequence;
 import santa.simulator.genomes.SimpleSequence;
 import santa.simulator.genomes.Feature;
@@ -13,6 +18,7 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 
@@ -100,4 +106,79 @@ public class PurifyingFitnessFactorTest {
 		assertEquals(factor.getLogFitnessChange(change), Double.NEGATIVE_INFINITY, 0);
 	}
 
+	// assert that correcting the cached fitness for the sites that fluctuated gives the
+	// same fitness as computing it from scratch.
+	@Test
+	public void fluctuationShouldCorrectCachedFitness() {
+		Random.setSeed(7);
+
+		Feature pol = GenomeDescription.root.getFeature("POL");
+		Feature gag = GenomeDescription.root.getFeature("GAG");
+		List<Byte> nucleotideOrder = new ArrayList<Byte>();
+		for (byte state = 0; state < 4; state++) {
+			nucleotideOrder.add(state);
+		}
+		PurifyingFitnessRank polRank = new PurifyingFitnessRank(pol, nucleotideOrder, 4, false);
+		Set<Integer> polSites = new TreeSet<Integer>();
+		for (int i = 0; i < pol.getLength(); i++) {
+			polSites.add(i);
+		}
+		PurifyingFitnessFactor polFactor = new PurifyingFitnessFactor(polRank,
+				new PurifyingFitnessPiecewiseLinearModel(SequenceAlphabet.NUCLEOTIDES, 0.1, 0.5), 0.5, 0.05, pol, polSites);
+
+		List<Set<Byte>> orderSetClasses = parseProbableSetClasses(SequenceAlphabet.AMINO_ACIDS, SimulatorParser.CHEMICAL_CLASSES);
+		PurifyingFitnessRank gagRank = new PurifyingFitnessRank(gag, orderSetClasses, true, -1);
+		Set<Integer> gagSites = new TreeSet<Integer>();
+		gagSites.add(0);
+		gagSites.add(1);
+		PurifyingFitnessFactor gagFactor = new PurifyingFitnessFactor(gagRank,
+				new PurifyingFitnessPiecewiseLinearModel(SequenceAlphabet.AMINO_ACIDS, 0.1, 0.9), 0.5, 0.05, gag, gagSites);
+
+		List<FitnessFactor> factors = new ArrayList<FitnessFactor>();
+		factors.add(polFactor);
+		factors.add(gagFactor);
+		FitnessFunction fitnessFunction = new FitnessFunction(factors);
+		GenePool genePool = new SimpleGenePool();
+		genePool.initialize();
+
+		Sequence master = GenomeDescription.getSequences().get(0);
+		List<Genome> genomes = new ArrayList<Genome>();
+		for (int i = 0; i < 10; i++) {
+			Genome genome = genePool.createGenome(master);
+			fitnessFunction.computeLogFitness(genome);
+			genomes.add(genePool.duplicateGenome(genome, createMutations(master.getLength()), fitnessFunction));
+		}
+
+		int changedSiteCount = 0;
+		for (int generation = 1; generation <= 30; generation++) {
+			fitnessFunction.updateGeneration(generation, null);
+			changedSiteCount += polFactor.getChangedSiteCount() + gagFactor.getChangedSiteCount();
+
+			for (int i = 0; i < genomes.size(); i++) {
+				Genome genome = genomes.get(i);
+				if (generation % 3 == 0) {
+					// the fitness of a mutant is corrected before its mutations are applied
+					genome = genePool.duplicateGenome(genome, createMutations(master.getLength()), fitnessFunction);
+					genomes.set(i, genome);
+				} else {
+					fitnessFunction.updateLogFitness(genome);
+				}
+
+				double expected = 0;
+				for (FitnessFactor factor : factors) {
+					expected += factor.computeLogFitness(genome.getStates(factor.getFeature()));
+				}
+				assertEquals("generation " + generation + ", genome " + i, expected, genome.getLogFitness(), 1E-9);
+			}
+		}
+		assertTrue("Expected some sites to fluctuate", changedSiteCount > 0);
+	}
+
+	private SortedSet<Mutation> createMutations(int length) {
+		SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+		for (int j = 0; j < 2; j++) {
+			mutations.add(Mutation.getMutation(Random.nextInt(0, length - 1), (byte) Random.nextInt(0, 3)));
+		}
+		return mutations;
+	}
 }
@@ -0,0 +1,157 @@
+package santa.simulator.genomes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import santa.simulator.fitness.FitnessFactor;
+import santa.simulator.fitness.FitnessFunction;
+
+/**
+ * Checks the batches of events that a gene pool delivers to its listeners, and that the
+ * pool's list of genomes only holds the genomes in use.
+ */
+public class GenePoolListenerTest {
+
+	private static final int GENOME_LENGTH = 30;
+
+	private Sequence master;
+	private FitnessFunction fitnessFunction;
+	private GenePool genePool;
+	private List<String> events;
+	private List<Genome> genomes;
+	private GenePoolListener listener;
+
+	@Before
+	public void setUp() {
+		master = new SimpleSequence(GENOME_LENGTH);
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, new ArrayList<Feature>(), Collections.singletonList(master));
+
+		fitnessFunction = new FitnessFunction(new ArrayList<FitnessFactor>());
+		genePool = new SimpleGenePool();
+		events = new ArrayList<String>();
+		genomes = new ArrayList<Genome>();
+		listener = new GenePoolListener() {
+			public void genomeCreated(Genome genome) {
+				events.add("created " + name(genome));
+			}
+
+			public void genomeDuplicated(Genome parent, Genome genome, SortedSet<Mutation> mutations) {
+				events.add("duplicated " + name(parent) + " " + name(genome) + " " + mutations.size());
+			}
+
+			public void frequencyChanged(Genome genome, int oldFrequency, int newFrequency) {
+				events.add("frequency " + name(genome) + " " + oldFrequency + " " + newFrequency);
+			}
+
+			public void genomeKilled(Genome genome) {
+				events.add("killed " + name(genome));
+			}
+
+			public void generationFinished(int generation) {
+				events.add("finished " + generation);
+			}
+
+			public void genePoolInitialized() {
+				events.add("initialized");
+			}
+		};
+		genePool.addGenePoolListener(listener);
+	}
+
+	@Test
+	public void testEventOrder() {
+		Genome a = create();
+		a.incrementFrequency();
+		a.incrementFrequency();
+		assertTrue(events.isEmpty());
+		genePool.finishGeneration(0);
+		assertEvents("created 0", "frequency 0 0 2", "finished 0");
+
+		Genome b = genePool.duplicateGenome(a, mutations(3), fitnessFunction);
+		genomes.add(b);
+		genePool.duplicateGenome(a, new TreeSet<Mutation>(), fitnessFunction);
+		genePool.killGenome(a);
+		genePool.killGenome(a);
+		genePool.killGenome(a);
+		genePool.finishGeneration(1);
+		assertEvents("duplicated 0 1 1", "frequency 1 0 1", "frequency 0 2 0", "killed 0", "finished 1");
+		assertEquals(Collections.singletonList(b), genePool.getGenomes());
+		assertEquals(1, genePool.getUnusedGenomeCount());
+	}
+
+	@Test
+	public void testReuseDeliversDeath() {
+		Genome a = create();
+		a.incrementFrequency();
+		genePool.finishGeneration(0);
+		events.clear();
+
+		// a genome killed in this generation is reused, so its death is delivered first.
+		genePool.killGenome(a);
+		assertTrue(events.isEmpty());
+		Genome c = genePool.createGenome(master);
+		assertSame(a, c);
+		assertEvents("frequency 0 1 0", "killed 0");
+
+		c.setFrequency(4);
+		genePool.finishGeneration(1);
+		assertEvents("created 0", "frequency 0 0 4", "finished 1");
+
+		genePool.initialize();
+		assertEvents("initialized");
+		assertTrue(genePool.getGenomes().isEmpty());
+	}
+
+	@Test
+	public void testNoEventsWithoutListeners() {
+		Genome a = create();
+		a.incrementFrequency();
+		genePool.removeGenePoolListener(listener);
+
+		// nothing is recorded while there are no listeners, and the pending events are dropped.
+		Genome b = genePool.duplicateGenome(a, mutations(3), fitnessFunction);
+		genomes.add(b);
+		b.incrementFrequency();
+		genePool.killGenome(a);
+		genePool.finishGeneration(0);
+		assertTrue(events.isEmpty());
+
+		// a listener added again only hears of the changes from then on.
+		genePool.addGenePoolListener(listener);
+		genePool.duplicateGenome(b, new TreeSet<Mutation>(), fitnessFunction);
+		genePool.finishGeneration(1);
+		assertEvents("frequency 1 2 3", "finished 1");
+	}
+
+	private Genome create() {
+		Genome genome = genePool.createGenome(master);
+		fitnessFunction.computeLogFitness(genome);
+		genomes.add(genome);
+		return genome;
+	}
+
+	private String name(Genome genome) {
+		return Integer.toString(genomes.indexOf(genome));
+	}
+
+	private SortedSet<Mutation> mutations(int position) {
+		SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+		mutations.add(Mutation.getMutation(position, (byte) 2));
+		return mutations;
+	}
+
+	private void assertEvents(String... expected) {
+		assertEquals(Arrays.asList(expected), events);
+		events.clear();
+	}
+}
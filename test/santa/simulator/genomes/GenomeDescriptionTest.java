@@ -215,4 +215,18 @@ public class GenomeDescriptionTest {
 		assertEquals(24, gag.getFragmentFinish(0));
 	}
 
+	/**
+	 * Repeating an indel gives the same description, and undoing it leads back to the root.
+	 */
+	@Test
+	public void testGenomeDescriptionInterned() {
+		GenomeDescription gd = GenomeDescription.applyIndel(GenomeDescription.root, 5, 3);
+		assertSame(gd, GenomeDescription.applyIndel(GenomeDescription.root, 5, 3));
+		assertTrue(gd.getId() != GenomeDescription.root.getId());
+		assertFalse(gd.equals(GenomeDescription.root));
+
+		assertSame(GenomeDescription.root, GenomeDescription.applyIndel(gd, 5, -3));
+		assertSame(GenomeDescription.root, GenomeDescription.applyIndel(GenomeDescription.root, 3, 0));
+	}
+
 }
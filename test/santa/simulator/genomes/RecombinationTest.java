@@ -6,11 +6,15 @@ import org.apache.commons.lang3.Range;
 import org.junit.Before;
 import org.junit.Test;
 
+import santa.simulator.fitness.FitnessFactor;
+import santa.simulator.fitness.FitnessFunction;
+
 import java.util.*;
 
 public class RecombinationTest {
 	@Before
 	public void setUp() throws Exception {
+		GenomeDescription.root = null;
 	}
 
 	@Test
@@ -32,4 +36,59 @@ public class RecombinationTest {
 		GenomeDescription rgd = GenomeDescription.recombine(parents, breaks);
 		System.out.format("recombotest\t\t%s\n", rgd);
 	}
+
+	@Test
+	public void recombineGenomes() {
+		recombineGenomes(false);
+		GenomeDescription.root = null;
+		recombineGenomes(true);
+	}
+
+	/**
+	 * Recombine two mutants of a master sequence, and check the recombinant takes each
+	 * interval from the right parent.
+	 */
+	private void recombineGenomes(boolean compact) {
+		int length = 30;
+		Random random = new Random(1);
+		SimpleSequence master = new SimpleSequence(length);
+		for (int i = 0; i < length; i++) {
+			master.setNucleotide(i, (byte) random.nextInt(4));
+		}
+		GenomeDescription.setDescription(length, new ArrayList<Feature>(), Collections.<Sequence>singletonList(master));
+
+		FitnessFunction fitnessFunction = new FitnessFunction(new ArrayList<FitnessFactor>());
+		GenePool genePool = (compact ? new CompactGenePool() : new SimpleGenePool());
+		genePool.initialize();
+		Genome ancestor = genePool.createGenome(master);
+		fitnessFunction.computeLogFitness(ancestor);
+
+		Genome[] parents = new Genome[2];
+		for (int p = 0; p < 2; p++) {
+			SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+			for (int i = p; i < length; i += 2) {
+				mutations.add(Mutation.getMutation(i, (byte) ((master.getNucleotide(i) + 1 + p) % 4)));
+			}
+			parents[p] = genePool.duplicateGenome(ancestor, mutations, fitnessFunction);
+		}
+
+		// a dead genome with a mutation count, which the recombinant will reuse
+		SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+		mutations.add(Mutation.getMutation(0, (byte) ((master.getNucleotide(0) + 1) % 4)));
+		Genome dead = genePool.duplicateGenome(ancestor, mutations, fitnessFunction);
+		((BaseGenome) dead).setTotalMutationCount(5);
+		genePool.killGenome(dead);
+
+		int[] breakPoints = { 6, 15, 21, -1 };
+		Genome recombinant = genePool.createRecombinantGenome(parents, breakPoints, 3, GenomeDescription.root);
+		assertEquals(length, recombinant.getLength());
+		assertSame(dead, recombinant);
+		// the recombinant does not keep the mutation count of the genome it reused
+		assertEquals(0, recombinant.getTotalMutationCount());
+		for (int i = 0; i < length; i++) {
+			int p = (i < 6 || (i >= 15 && i < 21) ? 0 : 1);
+			assertEquals("site " + i, parents[p].getNucleotide(i), recombinant.getNucleotide(i));
+		}
+		assertEquals(master.getNucleotide(0), ancestor.getNucleotide(0));
+	}
 }
@@ -0,0 +1,48 @@
+package santa.simulator.genomes;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Checks that a site map searched over its fragments agrees with the dense tables.
+ */
+public class SiteMapTest {
+
+	private static final int GENOME_LENGTH = 60;
+
+	@Test
+	public void testOrderedFragments() {
+		Feature feature = new Feature("exons", Feature.Type.NUCLEOTIDE);
+		feature.addFragment(2, 10);
+		feature.addFragment(20, 5);
+		feature.addFragment(40, 15);
+		checkSiteMap(feature, false);
+	}
+
+	@Test
+	public void testOverlappingFragments() {
+		// a frameshift reads the site at 29 twice, and the last fragment comes first in the genome.
+		Feature feature = new Feature("frameshift", Feature.Type.NUCLEOTIDE);
+		feature.addFragment(20, 10);
+		feature.addFragment(29, 12);
+		feature.addFragment(0, 6);
+		checkSiteMap(feature, true);
+	}
+
+	private void checkSiteMap(Feature feature, boolean repeatedSites) {
+		SiteMap dense = new SiteMap(feature, GENOME_LENGTH, true);
+		SiteMap sparse = new SiteMap(feature, GENOME_LENGTH, false);
+
+		assertEquals(dense.getSiteCount(), sparse.getSiteCount());
+		assertEquals(repeatedSites, dense.hasRepeatedSites());
+		assertEquals(repeatedSites, sparse.hasRepeatedSites());
+		assertArrayEquals(dense.getGenomePositions(), sparse.getGenomePositions());
+		for (int k = 0; k < dense.getSiteCount(); k++) {
+			assertEquals("site " + k, dense.getGenomePosition(k), sparse.getGenomePosition(k));
+		}
+		for (int i = -1; i <= GENOME_LENGTH; i++) {
+			assertEquals("position " + i, dense.getFeatureSite(i), sparse.getFeatureSite(i));
+		}
+	}
+}
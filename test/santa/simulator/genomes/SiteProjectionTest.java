@@ -0,0 +1,139 @@
+package santa.simulator.genomes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that reading a few sites of a feature through a SiteProjection gives the same
+ * states as picking them out of the whole feature, for both kinds of genome.
+ */
+public class SiteProjectionTest {
+
+	private static final int GENOME_LENGTH = 60;
+
+	private static Sequence master;
+	private static Feature nucleotides;
+	private static Feature aminoAcids;
+
+	@BeforeClass
+	public static void onceExecutedBeforeAll() throws Exception {
+		Random random = new Random(1);
+		SimpleSequence sequence = new SimpleSequence(GENOME_LENGTH);
+		for (int i = 0; i < GENOME_LENGTH; i++) {
+			sequence.setNucleotide(i, (byte) random.nextInt(4));
+		}
+		master = sequence;
+
+		nucleotides = new Feature("NT", Feature.Type.NUCLEOTIDE);
+		nucleotides.addFragment(0, GENOME_LENGTH);
+		aminoAcids = new Feature("AA", Feature.Type.AMINO_ACID);
+		aminoAcids.addFragment(3, 24);
+		aminoAcids.addFragment(33, 24);
+
+		List<Feature> features = new ArrayList<Feature>();
+		features.add(nucleotides);
+		features.add(aminoAcids);
+		List<Sequence> sequences = new ArrayList<Sequence>();
+		sequences.add(master);
+
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, features, sequences);
+		CompactGenome.setMasterSequence(master);
+	}
+
+	@Test
+	public void testSimpleGenome() {
+		Random random = new Random(2);
+		for (int r = 0; r < 20; r++) {
+			SimpleGenome genome = new SimpleGenome();
+			genome.setSequence(master);
+			if (r % 2 == 0) {
+				// start from the genome's own amino acid states, which are then patched.
+				genome.getStates(aminoAcids);
+			}
+			genome.applyMutations(createMutations(random));
+
+			checkProjection(genome, nucleotides, new int[] { 59, 0, 17, 17, 42, 3 });
+			checkProjection(genome, aminoAcids, new int[] { 5, 0, 15, 7, 7, 8 });
+		}
+	}
+
+	@Test
+	public void testCompactGenome() {
+		Random random = new Random(3);
+		for (int r = 0; r < 20; r++) {
+			SimpleSequence sequence = new SimpleSequence(master);
+			for (Mutation m : createMutations(random)) {
+				sequence.setNucleotide(m.position, m.state);
+			}
+			CompactGenome genome = new CompactGenome(sequence);
+
+			checkProjection(genome, nucleotides, new int[] { 59, 0, 17, 17, 42, 3 });
+			checkProjection(genome, aminoAcids, new int[] { 5, 0, 15, 7, 7, 8 });
+		}
+	}
+
+	@Test
+	public void testShrunkFeature() {
+		SimpleGenome genome = new SimpleGenome();
+		genome.setSequence(master);
+		genome.getStates(aminoAcids);
+		SortedSet<Mutation> deletion = new TreeSet<Mutation>();
+		deletion.add(new Deletion(40, 12));
+		genome.applyMutations(deletion);
+		assertEquals(12, genome.getStates(aminoAcids).length);
+
+		// only the sites before the first one past the end of the shrunk feature are read.
+		byte[] states = new byte[3];
+		int count = genome.getStates(new SiteProjection(aminoAcids, new int[] { 2, 15, 1 }), states);
+		assertEquals(1, count);
+		assertEquals(genome.getStates(aminoAcids)[2], states[0]);
+	}
+
+	@Test
+	public void testAlternatingDescriptions() {
+		SimpleGenome genome = new SimpleGenome();
+		genome.setSequence(master);
+		SortedSet<Mutation> deletion = new TreeSet<Mutation>();
+		deletion.add(new Deletion(40, 3));
+		genome.applyMutations(deletion);
+		GenomeDescription shrunk = genome.getDescription();
+		assertNotSame(GenomeDescription.root, shrunk);
+
+		// the positions for each description are kept, not recomputed when the other is used
+		SiteProjection projection = new SiteProjection(aminoAcids, new int[] { 5, 0, 15 });
+		int[] positions = projection.getPositions(GenomeDescription.root);
+		int[] shrunkPositions = projection.getPositions(shrunk);
+		assertSame(positions, projection.getPositions(GenomeDescription.root));
+		assertSame(shrunkPositions, projection.getPositions(shrunk));
+		// the last site is past the end of the shrunk feature
+		assertEquals(9, positions.length);
+		assertEquals(6, shrunkPositions.length);
+	}
+
+	private void checkProjection(Genome genome, Feature feature, int[] sites) {
+		byte[] expected = genome.getStates(feature);
+		byte[] states = new byte[sites.length];
+		int count = genome.getStates(new SiteProjection(feature, sites), states);
+		assertEquals(sites.length, count);
+		for (int i = 0; i < sites.length; i++) {
+			assertEquals("site " + sites[i], expected[sites[i]], states[i]);
+		}
+	}
+
+	private SortedSet<Mutation> createMutations(Random random) {
+		SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+		for (int j = 0; j < 8; j++) {
+			mutations.add(Mutation.getMutation(random.nextInt(GENOME_LENGTH), (byte) random.nextInt(4)));
+		}
+		return mutations;
+	}
+}
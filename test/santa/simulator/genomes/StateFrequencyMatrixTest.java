@@ -0,0 +1,145 @@
+package santa.simulator.genomes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import santa.simulator.fitness.FitnessFactor;
+import santa.simulator.fitness.FitnessFunction;
+
+/**
+ * Checks that the state frequencies the gene pool keeps up to date from its births
+ * (including recombinants) and deaths agree with counting them over the genomes'
+ * sequences, and that they are only followed once they have been asked for.
+ */
+public class StateFrequencyMatrixTest {
+
+	private static final int GENOME_LENGTH = 90;
+	private static final int POPULATION_SIZE = 50;
+
+	@Test
+	public void testSimpleGenePool() {
+		checkFrequencies(false);
+	}
+
+	@Test
+	public void testCompactGenePool() {
+		checkFrequencies(true);
+	}
+
+	private void checkFrequencies(boolean compact) {
+		Random random = new Random(1);
+		SimpleSequence master = new SimpleSequence(GENOME_LENGTH);
+		for (int i = 0; i < GENOME_LENGTH; i++) {
+			master.setNucleotide(i, (byte) random.nextInt(4));
+		}
+
+		Feature feature = new Feature("NT", Feature.Type.NUCLEOTIDE);
+		feature.addFragment(10, 40);
+		List<Feature> features = new ArrayList<Feature>();
+		features.add(feature);
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, features, Collections.<Sequence>singletonList(master));
+
+		FitnessFunction fitnessFunction = new FitnessFunction(new ArrayList<FitnessFactor>());
+		GenePool genePool = (compact ? new CompactGenePool() : new SimpleGenePool());
+		genePool.initialize();
+
+		// an inoculum of the master sequence and a few variants of it
+		Genome ancestor = genePool.createGenome(master);
+		fitnessFunction.computeLogFitness(ancestor);
+		List<Genome> generation = new ArrayList<Genome>();
+		for (int i = 0; i < POPULATION_SIZE; i++) {
+			if (i % 10 == 0) {
+				SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+				for (int j = 0; j < 3; j++) {
+					int position = random.nextInt(GENOME_LENGTH);
+					mutations.add(Mutation.getMutation(position, (byte) ((master.getNucleotide(position) + 1) % 4)));
+				}
+				generation.add(genePool.duplicateGenome(ancestor, mutations, fitnessFunction));
+			} else {
+				ancestor.incrementFrequency();
+				generation.add(ancestor);
+			}
+		}
+		// the frequencies are only followed once they have been asked for.
+		assertFalse(((BaseGenePool) genePool).isFrequencyMatrixAttached());
+		checkFrequencies(genePool, feature);
+		assertTrue(((BaseGenePool) genePool).isFrequencyMatrixAttached());
+
+		int[] breakPoints = new int[3];
+		Genome[] parents = new Genome[2];
+		for (int g = 0; g < 30; g++) {
+			List<Genome> next = new ArrayList<Genome>();
+			for (int i = 0; i < POPULATION_SIZE; i++) {
+				Genome parent = generation.get(random.nextInt(generation.size()));
+				SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+				if (random.nextInt(3) == 0) {
+					for (int j = 0; j < 2; j++) {
+						int position = random.nextInt(GENOME_LENGTH);
+						byte state = (byte) ((parent.getNucleotide(position) + 1 + random.nextInt(3)) % 4);
+						mutations.add(Mutation.getMutation(position, state));
+					}
+				}
+				if (random.nextInt(4) == 0) {
+					// a recombinant of the parent and another, at up to three breakpoints (in
+					// increasing order, possibly repeated or at the start of the genome).
+					parents[0] = parent;
+					parents[1] = generation.get(random.nextInt(generation.size()));
+					int breakPointCount = random.nextInt(4);
+					for (int j = 0; j < breakPointCount; j++) {
+						breakPoints[j] = random.nextInt(GENOME_LENGTH);
+					}
+					Arrays.sort(breakPoints, 0, breakPointCount);
+					Genome genome = genePool.createRecombinantGenome(parents, breakPoints, breakPointCount, parent.getDescription());
+					genome.setFrequency(1);
+					genePool.mutateGenome(genome, mutations);
+					fitnessFunction.computeLogFitness(genome);
+					next.add(genome);
+				} else {
+					next.add(genePool.duplicateGenome(parent, mutations, fitnessFunction));
+				}
+			}
+			for (Genome genome : generation) {
+				genePool.killGenome(genome);
+			}
+			genePool.finishGeneration(g);
+			generation = next;
+
+			checkFrequencies(genePool, feature);
+		}
+	}
+
+	private void checkFrequencies(GenePool genePool, Feature feature) {
+		int[][] expected = new int[GENOME_LENGTH][4];
+		for (Genome genome : genePool.getGenomes()) {
+			for (int i = 0; i < GENOME_LENGTH; i++) {
+				expected[i][genome.getNucleotide(i)] += genome.getFrequency();
+			}
+		}
+
+		int[][] frequencies = genePool.getStateFrequencies();
+		for (int i = 0; i < GENOME_LENGTH; i++) {
+			assertArrayEquals("site " + i, expected[i], frequencies[i]);
+		}
+
+		Set<Integer> sites = new TreeSet<Integer>();
+		sites.add(0);
+		sites.add(17);
+		sites.add(39);
+		int[][] siteFrequencies = genePool.getStateFrequencies(feature, sites);
+		int k = 0;
+		for (int site : sites) {
+			assertArrayEquals("feature site " + site, expected[10 + site], siteFrequencies[k++]);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package santa.simulator.phylogeny;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Utils;
+
+import org.junit.Test;
+
+/**
+ * Checks the local trees of the recombination graph against tracing the ancestry of each
+ * position back through the pedigree, with and without simplification.
+ */
+public class AncestralRecombinationGraphTest {
+
+	private static final int GENOME_LENGTH = 30;
+	private static final int GENERATION_COUNT = 40;
+
+	@Test
+	public void testLocalTrees() {
+		Random random = new Random(7);
+
+		// a pedigree of recombinants in a population that varies in size
+		List<int[][]> pedigree = new ArrayList<int[][]>();
+		int populationSize = 10;
+		for (int g = 1; g <= GENERATION_COUNT; g++) {
+			int size = 8 + random.nextInt(8);
+			int[][] children = new int[size][];
+			for (int i = 0; i < size; i++) {
+				int first = random.nextInt(populationSize);
+				if (random.nextInt(3) == 0) {
+					int breakPoint = 1 + random.nextInt(GENOME_LENGTH - 1);
+					children[i] = new int[] { first, random.nextInt(populationSize), breakPoint };
+					if (random.nextBoolean() && breakPoint < GENOME_LENGTH - 1) {
+						children[i] = new int[] { children[i][0], children[i][1], breakPoint, breakPoint + 1 + random.nextInt(GENOME_LENGTH - breakPoint - 1) };
+					}
+				} else {
+					children[i] = new int[] { first, -1 };
+				}
+			}
+			pedigree.add(children);
+			populationSize = size;
+		}
+
+		int[] sample = new int[] { 0, 2, 3, 5, 7 };
+		List<Taxon> taxa = new ArrayList<Taxon>();
+		for (int i = 0; i < sample.length; i++) {
+			taxa.add(Taxon.getTaxon("t" + i));
+		}
+
+		AncestralRecombinationGraph unsimplified = record(pedigree, 0);
+		AncestralRecombinationGraph simplified = record(pedigree, 1);
+		assertTrue(simplified.getNodeCount() < unsimplified.getNodeCount());
+
+		List<AncestralRecombinationGraph.LocalTree> trees = unsimplified.reconstructLocalTrees(sample, taxa);
+		List<AncestralRecombinationGraph.LocalTree> simplifiedTrees = simplified.reconstructLocalTrees(sample, taxa);
+		assertNotNull(trees);
+		assertEquals(trees.size(), simplifiedTrees.size());
+		for (int k = 0; k < trees.size(); k++) {
+			assertEquals(trees.get(k).getLeft(), simplifiedTrees.get(k).getLeft());
+			assertEquals(trees.get(k).getRight(), simplifiedTrees.get(k).getRight());
+			assertEquals(Utils.toNewick(trees.get(k).getTree()), Utils.toNewick(simplifiedTrees.get(k).getTree()));
+		}
+		assertEquals(0, trees.get(0).getLeft());
+		assertEquals(GENOME_LENGTH, trees.get(trees.size() - 1).getRight());
+
+		for (int position = 0; position < GENOME_LENGTH; position++) {
+			RootedTree tree = null;
+			for (AncestralRecombinationGraph.LocalTree t : trees) {
+				if (t.getLeft() <= position && position < t.getRight()) {
+					tree = t.getTree();
+				}
+			}
+			for (int i = 0; i < sample.length; i++) {
+				for (int j = i + 1; j < sample.length; j++) {
+					assertEquals("position " + position + ", samples " + i + ", " + j,
+							traceCoalescence(pedigree, position, sample[i], sample[j]),
+							GENERATION_COUNT - getCommonAncestorHeight(tree, taxa.get(i), taxa.get(j)), 0.0);
+				}
+			}
+		}
+	}
+
+	private AncestralRecombinationGraph record(List<int[][]> pedigree, int simplifyInterval) {
+		AncestralRecombinationGraph arg = new AncestralRecombinationGraph(GENOME_LENGTH, simplifyInterval);
+		arg.initialize(10);
+		int g = 1;
+		for (int[][] children : pedigree) {
+			for (int[] child : children) {
+				int[] breakPoints = new int[child.length - 2];
+				System.arraycopy(child, 2, breakPoints, 0, breakPoints.length);
+				arg.addChild(g, child[0], child[1], breakPoints, breakPoints.length);
+			}
+			arg.finishGeneration(g);
+			g++;
+		}
+		return arg;
+	}
+
+	/**
+	 * @return the generation of the most recent common ancestor of two genomes of the last
+	 *         generation, at a position.
+	 */
+	private int traceCoalescence(List<int[][]> pedigree, int position, int first, int second) {
+		for (int g = pedigree.size(); g > 0; g--) {
+			if (first == second) {
+				return g;
+			}
+			first = getParent(pedigree.get(g - 1)[first], position);
+			second = getParent(pedigree.get(g - 1)[second], position);
+		}
+		// the initial population all descend from the root
+		return 0;
+	}
+
+	private int getParent(int[] child, int position) {
+		int crossings = 0;
+		for (int k = 2; k < child.length; k++) {
+			if (child[k] <= position) {
+				crossings++;
+			}
+		}
+		return (crossings % 2 == 0 ? child[0] : child[1]);
+	}
+
+	private double getCommonAncestorHeight(RootedTree tree, Taxon first, Taxon second) {
+		Set<Node> ancestors = new HashSet<Node>();
+		for (Node node = tree.getNode(first); node != null; node = tree.getParent(node)) {
+			ancestors.add(node);
+		}
+		Node node = tree.getNode(second);
+		while (!ancestors.contains(node)) {
+			node = tree.getParent(node);
+		}
+		return tree.getHeight(node);
+	}
+}
@@ -0,0 +1,155 @@
+package santa.simulator.phylogeny;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import santa.simulator.fitness.FitnessFactor;
+import santa.simulator.fitness.FitnessFunction;
+import santa.simulator.genomes.Feature;
+import santa.simulator.genomes.GenePool;
+import santa.simulator.genomes.Genome;
+import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.Mutation;
+import santa.simulator.genomes.Sequence;
+import santa.simulator.genomes.SimpleGenePool;
+import santa.simulator.genomes.SimpleSequence;
+
+/**
+ * Checks that the trees rebuilt from a genealogy log, at the last generation and at an
+ * earlier one, agree with those of the phylogeny that was pruned as the run went on.
+ */
+public class GenealogyLogTest {
+
+	private static final int GENOME_LENGTH = 30;
+	private static final int POPULATION_SIZE = 12;
+	private static final int GENERATION_COUNT = 60;
+	private static final int PAST_GENERATION = 25;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReconstructTree() throws IOException {
+		Random random = new Random(13);
+		SimpleSequence master = new SimpleSequence(GENOME_LENGTH);
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, new ArrayList<Feature>(), Collections.<Sequence>singletonList(master));
+
+		FitnessFunction fitnessFunction = new FitnessFunction(new ArrayList<FitnessFactor>());
+		GenePool genePool = new SimpleGenePool();
+		genePool.initialize();
+
+		// a small segment size, so the log is rolled many times
+		String fileName = folder.getRoot().getPath() + "/genealogy.log";
+		GenealogyLog log = new GenealogyLog(7);
+		log.open(fileName);
+		log.initialize(genePool);
+		Phylogeny phylogeny = new Phylogeny(POPULATION_SIZE);
+
+		Genome ancestor = genePool.createGenome(master);
+		fitnessFunction.computeLogFitness(ancestor);
+		List<Genome> generation = new ArrayList<Genome>();
+		for (int i = 0; i < POPULATION_SIZE; i++) {
+			ancestor.incrementFrequency();
+			generation.add(ancestor);
+			log.addChild(0, -1, ancestor);
+		}
+		log.finishGeneration();
+
+		List<Taxon> taxa = new ArrayList<Taxon>();
+		int[] sample = new int[] { 0, 3, 4, 8, 11 };
+		for (int i = 0; i < sample.length; i++) {
+			taxa.add(Taxon.getTaxon("t" + i));
+		}
+		RootedTree pastTree = null;
+
+		for (int g = 1; g <= GENERATION_COUNT; g++) {
+			List<Integer> selectedParents = new ArrayList<Integer>();
+			List<Genome> next = new ArrayList<Genome>();
+			for (int i = 0; i < POPULATION_SIZE; i++) {
+				int parent = random.nextInt(POPULATION_SIZE);
+				selectedParents.add(parent);
+				SortedSet<Mutation> mutations = new TreeSet<Mutation>();
+				if (random.nextInt(4) == 0) {
+					mutations.add(Mutation.getMutation(random.nextInt(GENOME_LENGTH), (byte) random.nextInt(4)));
+				}
+				Genome genome = genePool.duplicateGenome(generation.get(parent), mutations, fitnessFunction);
+				next.add(genome);
+				log.addChild(g, parent, genome);
+			}
+			log.finishGeneration();
+			for (Genome genome : generation) {
+				genePool.killGenome(genome);
+			}
+			genePool.finishGeneration(g);
+			phylogeny.addGeneration(g, selectedParents);
+			generation = next;
+
+			if (g == PAST_GENERATION) {
+				pastTree = phylogeny.reconstructPhylogeny(sample, taxa);
+			}
+		}
+		RootedTree tree = phylogeny.reconstructPhylogeny(sample, taxa);
+		log.close();
+
+		GenealogyReader reader = new GenealogyReader(fileName);
+		assertEquals((GENERATION_COUNT + 1) * POPULATION_SIZE, reader.getRecordCount());
+		assertEquals(POPULATION_SIZE, reader.getGenerationSize(PAST_GENERATION));
+		checkTree(tree, reader.reconstructTree(GENERATION_COUNT, sample, taxa), taxa);
+		checkTree(pastTree, reader.reconstructTree(PAST_GENERATION, sample, taxa), taxa);
+
+		// viruses share a genome id exactly when they share a genome
+		Map<Genome, Integer> genomeIds = new IdentityHashMap<Genome, Integer>();
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int i = 0; i < POPULATION_SIZE; i++) {
+			int id = reader.getGenomeId(reader.getId(GENERATION_COUNT, i));
+			Integer expected = genomeIds.get(generation.get(i));
+			if (expected == null) {
+				assertTrue(ids.add(id));
+				genomeIds.put(generation.get(i), id);
+			} else {
+				assertEquals(expected.intValue(), id);
+			}
+		}
+	}
+
+	private void checkTree(RootedTree expected, RootedTree tree, List<Taxon> taxa) {
+		for (int i = 0; i < taxa.size(); i++) {
+			for (int j = i + 1; j < taxa.size(); j++) {
+				assertEquals(getCommonAncestorHeight(expected, taxa.get(i), taxa.get(j)),
+						getCommonAncestorHeight(tree, taxa.get(i), taxa.get(j)), 0.0);
+			}
+		}
+	}
+
+	private double getCommonAncestorHeight(RootedTree tree, Taxon first, Taxon second) {
+		Set<Node> ancestors = new HashSet<Node>();
+		for (Node node = tree.getNode(first); node != null; node = tree.getParent(node)) {
+			ancestors.add(node);
+		}
+		Node node = tree.getNode(second);
+		while (!ancestors.contains(node)) {
+			node = tree.getParent(node);
+		}
+		return tree.getHeight(node);
+	}
+}
@@ -0,0 +1,122 @@
+package santa.simulator.phylogeny;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+
+import org.junit.Test;
+
+/**
+ * Checks the most recent common ancestor the phylogeny keeps up to date against tracing
+ * the whole population back through the pedigree, every generation.
+ */
+public class PhylogenyTest {
+
+	private static final int POPULATION_SIZE = 20;
+
+	@Test
+	public void testMRCAGeneration() {
+		Random random = new Random(3);
+		Phylogeny phylogeny = new Phylogeny(POPULATION_SIZE);
+		List<List<Integer>> pedigree = new ArrayList<List<Integer>>();
+
+		for (int g = 1; g <= 200; g++) {
+			List<Integer> selectedParents = new ArrayList<Integer>();
+			for (int i = 0; i < POPULATION_SIZE; i++) {
+				selectedParents.add(random.nextInt(POPULATION_SIZE));
+			}
+			pedigree.add(selectedParents);
+			phylogeny.addGeneration(g, selectedParents);
+
+			assertEquals("generation " + g, traceMRCAGeneration(pedigree), phylogeny.getMRCAGeneration());
+		}
+		assertTrue(phylogeny.getMRCAGeneration() > 0);
+		// only the current generation and the coalescences between them are kept
+		assertTrue(phylogeny.getSize() < 2 * POPULATION_SIZE);
+	}
+
+	@Test
+	public void testTwoParents() {
+		Random random = new Random(5);
+		Phylogeny phylogeny = new Phylogeny(POPULATION_SIZE);
+		List<List<Integer>> pedigree = new ArrayList<List<Integer>>();
+
+		for (int g = 1; g <= 100; g++) {
+			List<Integer> selectedParents = new ArrayList<Integer>();
+			List<Integer> firstParents = new ArrayList<Integer>();
+			for (int i = 0; i < POPULATION_SIZE; i++) {
+				int first = random.nextInt(POPULATION_SIZE);
+				selectedParents.add(first);
+				selectedParents.add(random.nextInt(POPULATION_SIZE));
+				firstParents.add(first);
+			}
+			pedigree.add(firstParents);
+			phylogeny.addGeneration(g, selectedParents, 2);
+
+			assertEquals("generation " + g, traceMRCAGeneration(pedigree), phylogeny.getMRCAGeneration());
+		}
+	}
+
+	@Test
+	public void testVariablePopulationSize() {
+		Random random = new Random(11);
+		Phylogeny phylogeny = new Phylogeny(5);
+		List<List<Integer>> pedigree = new ArrayList<List<Integer>>();
+
+		// grow from 5 to several hundred, and then crash to a handful
+		int size = 5;
+		for (int g = 1; g <= 150; g++) {
+			int nextSize = (g <= 60 ? size + 1 + size / 10 : Math.max(3, size / 2));
+			List<Integer> selectedParents = new ArrayList<Integer>();
+			for (int i = 0; i < nextSize; i++) {
+				selectedParents.add(random.nextInt(size));
+			}
+			pedigree.add(selectedParents);
+			phylogeny.addGeneration(g, selectedParents);
+			size = nextSize;
+
+			assertEquals(size, phylogeny.getExtantCount());
+			assertEquals("generation " + g, traceMRCAGeneration(pedigree), phylogeny.getMRCAGeneration());
+		}
+
+		List<Taxon> taxa = new ArrayList<Taxon>();
+		for (int i = 0; i < size; i++) {
+			taxa.add(Taxon.getTaxon("t" + i));
+		}
+		int[] sample = new int[size];
+		for (int i = 0; i < size; i++) {
+			sample[i] = i;
+		}
+		RootedTree tree = phylogeny.reconstructPhylogeny(sample, taxa);
+		assertNotNull(tree);
+		assertEquals(150 - phylogeny.getMRCAGeneration(), tree.getHeight(tree.getRootNode()), 0.0);
+	}
+
+	/**
+	 * @return the latest generation in which the ancestors of the last generation are a single genome.
+	 */
+	private int traceMRCAGeneration(List<List<Integer>> pedigree) {
+		Set<Integer> ancestors = new HashSet<Integer>();
+		for (int i = 0; i < pedigree.get(pedigree.size() - 1).size(); i++) {
+			ancestors.add(i);
+		}
+		for (int g = pedigree.size(); g > 0; g--) {
+			if (ancestors.size() == 1) {
+				return g;
+			}
+			Set<Integer> parents = new HashSet<Integer>();
+			for (int i : ancestors) {
+				parents.add(pedigree.get(g - 1).get(i));
+			}
+			ancestors = parents;
+		}
+		return 0;
+	}
+}
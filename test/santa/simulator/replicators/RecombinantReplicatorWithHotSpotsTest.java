@@ -0,0 +1,101 @@
+package santa.simulator.replicators;
+
+import santa.simulator.Random;
+import santa.simulator.genomes.Feature;
+import santa.simulator.genomes.GenomeDescription;
+import santa.simulator.genomes.RecombinationHotSpot;
+import santa.simulator.genomes.Sequence;
+import santa.simulator.genomes.SimpleSequence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the breakpoints drawn with hotspots fall in each segment of the genome
+ * in proportion to its length times its boost factor.
+ */
+public class RecombinantReplicatorWithHotSpotsTest {
+
+	private static final int GENOME_LENGTH = 100;
+	private static final int DRAW_COUNT = 20000;
+
+	@Before
+	public void setUp() throws Exception {
+		GenomeDescription.root = null;
+		GenomeDescription.setDescription(GENOME_LENGTH, new ArrayList<Feature>(),
+				Collections.<Sequence>singletonList(new SimpleSequence(GENOME_LENGTH)));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		GenomeDescription.setHotSpots(new ArrayList<RecombinationHotSpot>());
+	}
+
+	@Test
+	public void breakPointsShouldFollowHotSpots() {
+		Random.setSeed(5);
+
+		// a hotspot at the start of the genome, one in the middle and one running to its
+		// end, given out of order.
+		List<RecombinationHotSpot> hotSpots = new ArrayList<RecombinationHotSpot>();
+		hotSpots.add(createHotSpot(40, 49, 3.0));
+		hotSpots.add(createHotSpot(90, GENOME_LENGTH - 1, 10.0));
+		hotSpots.add(createHotSpot(0, 9, 5.0));
+		GenomeDescription.setHotSpots(hotSpots);
+
+		// the segments of the genome, and their lengths times their boost factors.
+		int[] segmentEnds = { 9, 39, 49, 89, GENOME_LENGTH - 1 };
+		double[] weights = { 10 * 5.0, 30, 10 * 3.0, 40, 10 * 10.0 };
+		double totalWeight = 0;
+		for (double weight : weights) {
+			totalWeight += weight;
+		}
+
+		RecombinantReplicatorWithHotSpots replicator = new RecombinantReplicatorWithHotSpots(1.0, 0.05);
+		int[] segmentCounts = new int[segmentEnds.length];
+		int[] positionCounts = new int[GENOME_LENGTH];
+		int count = 0;
+		for (int d = 0; d < DRAW_COUNT; d++) {
+			int n = replicator.getBreakPoints(GENOME_LENGTH - 1);
+			for (int i = 0; i < n; i++) {
+				int breakPoint = replicator.getBreakPoint(i);
+				assertTrue("breakpoint " + breakPoint, breakPoint >= 0 && breakPoint < GENOME_LENGTH);
+				if (i > 0) {
+					assertTrue("breakpoints in order", breakPoint >= replicator.getBreakPoint(i - 1));
+				}
+				int k = 0;
+				while (breakPoint > segmentEnds[k]) {
+					k++;
+				}
+				segmentCounts[k]++;
+				positionCounts[breakPoint]++;
+				count++;
+			}
+		}
+
+		// about 5 breakpoints per draw
+		assertEquals(0.05 * (GENOME_LENGTH - 1), (double) count / DRAW_COUNT, 0.1);
+		for (int k = 0; k < segmentEnds.length; k++) {
+			assertEquals("segment ending at " + segmentEnds[k], weights[k] / totalWeight, (double) segmentCounts[k] / count, 0.01);
+		}
+		// both ends of the genome can be drawn
+		assertTrue(positionCounts[0] > 0);
+		assertTrue(positionCounts[GENOME_LENGTH - 1] > 0);
+	}
+
+	private RecombinationHotSpot createHotSpot(int start, int end, double factor) {
+		Set<Integer> segment = new TreeSet<Integer>();
+		segment.add(start);
+		segment.add(end);
+		return RecombinationHotSpot.createHotSpot(segment, factor);
+	}
+}